@@ -1,3 +1,3 @@
 export JAVA_HOME=$JDK9_HOME
 export PATH=$JAVA_HOME/bin:$PATH
-mvn release:clean && mvn release:prepare -Pjdk9 && mvn release:perform -Pjdk9
\ No newline at end of file
+mvn release:clean && mvn release:prepare -Pjdk9,jdk21 && mvn release:perform -Pjdk9,jdk21
\ No newline at end of file
@@ -0,0 +1,126 @@
+package com.hibegin.common.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按大小分级(2 的次方，MIN_BUFFER_SIZE ~ MAX_BUFFER_SIZE)缓存 ByteBuffer，借出的 buffer 使用完后需要调用 release 归还
+ * <p>
+ * 超过 MAX_BUFFER_SIZE 的直接分配不缓存，每一级最多缓存 MAX_POOLED_PER_SIZE 个
+ */
+public class ByteBufferPool {
+
+    public static final int MIN_BUFFER_SIZE = 1024;
+    public static final int MAX_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_PER_SIZE = 256;
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+
+    private final boolean direct;
+    private final List<Queue<ByteBuffer>> pools;
+    private final AtomicInteger[] pooledCounts;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param direct 是否使用堆外内存
+     */
+    public ByteBufferPool(boolean direct) {
+        this.direct = direct;
+        int size = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - MIN_SHIFT + 1;
+        this.pools = new ArrayList<>(size);
+        this.pooledCounts = new AtomicInteger[size];
+        for (int i = 0; i < size; i++) {
+            pools.add(new ConcurrentLinkedQueue<ByteBuffer>());
+            pooledCounts[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * 返回的 buffer 容量不小于 size，position 为 0，limit 为 capacity
+     */
+    public ByteBuffer acquire(int size) {
+        int index = indexOf(size);
+        if (index < 0) {
+            missCount.incrementAndGet();
+            return allocate(size);
+        }
+        ByteBuffer byteBuffer = pools.get(index).poll();
+        if (byteBuffer != null) {
+            pooledCounts[index].decrementAndGet();
+            hitCount.incrementAndGet();
+            return byteBuffer;
+        }
+        missCount.incrementAndGet();
+        return allocate(MIN_BUFFER_SIZE << index);
+    }
+
+    /**
+     * 归还后调用方不能再使用这个 buffer
+     */
+    public void release(ByteBuffer byteBuffer) {
+        if (byteBuffer == null || byteBuffer.isDirect() != direct) {
+            return;
+        }
+        int capacity = byteBuffer.capacity();
+        int index = indexOf(capacity);
+        if (index < 0 || (MIN_BUFFER_SIZE << index) != capacity) {
+            return;
+        }
+        if (pooledCounts[index].incrementAndGet() > MAX_POOLED_PER_SIZE) {
+            pooledCounts[index].decrementAndGet();
+            return;
+        }
+        byteBuffer.clear();
+        pools.get(index).offer(byteBuffer);
+    }
+
+    private int indexOf(int size) {
+        if (size > MAX_BUFFER_SIZE) {
+            return -1;
+        }
+        if (size <= MIN_BUFFER_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    private ByteBuffer allocate(int size) {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * 从池中直接借到 buffer 的比例
+     */
+    public double getHitRate() {
+        long hit = hitCount.get();
+        long total = hit + missCount.get();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    @Override
+    public String toString() {
+        return "ByteBufferPool{" +
+                "direct=" + direct +
+                ", hitCount=" + getHitCount() +
+                ", missCount=" + getMissCount() +
+                ", hitRate=" + String.format("%.4f", getHitRate()) +
+                '}';
+    }
+}
@@ -1,5 +1,7 @@
 package com.hibegin.common.util;
 
+import java.nio.ByteBuffer;
+
 /**
  * 字节，字节数组(合并,截取)
  */
@@ -24,4 +26,13 @@ public class BytesUtil {
         System.arraycopy(b, start, bytes, 0, length);
         return bytes;
     }
+
+    /**
+     * 复制 position 到 limit 之间的数据，不改变 byteBuffer 的 position，堆外的 buffer 也可以使用
+     */
+    public static byte[] toBytes(ByteBuffer byteBuffer) {
+        byte bytes[] = new byte[byteBuffer.remaining()];
+        byteBuffer.duplicate().get(bytes);
+        return bytes;
+    }
 }
@@ -0,0 +1,56 @@
+package com.hibegin.common.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * 缓存 Deflater(nowrap，不带 zlib 头，用于 gzip)，避免每次压缩都创建新的 Deflater 和它的本地内存
+ * <p>
+ * 借出的 Deflater 使用完后需要调用 release 归还，最多缓存 MAX_POOLED 个，多出的直接 end
+ */
+public class DeflaterPool {
+
+    private static final int MAX_POOLED = 64;
+
+    private final int level;
+    private final Queue<Deflater> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledCount = new AtomicInteger();
+
+    /**
+     * @param level 压缩级别，0 ~ 9 或者 Deflater.DEFAULT_COMPRESSION
+     */
+    public DeflaterPool(int level) {
+        this.level = level;
+    }
+
+    public Deflater acquire() {
+        Deflater deflater = pool.poll();
+        if (deflater != null) {
+            pooledCount.decrementAndGet();
+            return deflater;
+        }
+        return new Deflater(level, true);
+    }
+
+    /**
+     * 归还后调用方不能再使用这个 Deflater
+     */
+    public void release(Deflater deflater) {
+        if (deflater == null) {
+            return;
+        }
+        if (pooledCount.incrementAndGet() > MAX_POOLED) {
+            pooledCount.decrementAndGet();
+            deflater.end();
+            return;
+        }
+        deflater.reset();
+        pool.offer(deflater);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+}
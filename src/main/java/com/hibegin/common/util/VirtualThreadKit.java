@@ -0,0 +1,17 @@
+package com.hibegin.common.util;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 虚拟线程需要 JDK21 及以上，对应的实现在 src/main/java21 中，通过 Multi-Release 的方式加载
+ */
+public class VirtualThreadKit {
+
+    public static boolean isSupported() {
+        return false;
+    }
+
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        throw new UnsupportedOperationException("virtual thread need jdk21+");
+    }
+}
@@ -0,0 +1,297 @@
+package com.hibegin.http;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * 请求头的容器，名称不区分大小写，不管使用什么大小写查找都是 O(1)
+ * <p>
+ * 常用的请求头名称使用下面的常量，解析时直接复用不再创建新的 String。解析得到的值先以字节保存，第一次读取时才转换成 String
+ */
+public class HttpHeaders extends AbstractMap<String, String> {
+
+    public static final String ACCEPT = "Accept";
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String ACCEPT_LANGUAGE = "Accept-Language";
+    public static final String AUTHORIZATION = "Authorization";
+    public static final String CACHE_CONTROL = "Cache-Control";
+    public static final String CONNECTION = "Connection";
+    public static final String CONTENT_DISPOSITION = "Content-Disposition";
+    public static final String CONTENT_ENCODING = "Content-Encoding";
+    public static final String CONTENT_LENGTH = "Content-Length";
+    public static final String CONTENT_TYPE = "Content-Type";
+    public static final String COOKIE = "Cookie";
+    public static final String EXPECT = "Expect";
+    public static final String HOST = "Host";
+    public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    public static final String IF_NONE_MATCH = "If-None-Match";
+    public static final String ORIGIN = "Origin";
+    public static final String PRAGMA = "Pragma";
+    public static final String PROXY_CONNECTION = "Proxy-Connection";
+    public static final String RANGE = "Range";
+    public static final String REFERER = "Referer";
+    public static final String TRANSFER_ENCODING = "Transfer-Encoding";
+    public static final String UPGRADE = "Upgrade";
+    public static final String USER_AGENT = "User-Agent";
+    public static final String X_FORWARDED_FOR = "X-Forwarded-For";
+    public static final String X_REAL_IP = "X-Real-IP";
+
+    private static final String[] WELL_KNOWN_NAMES = newWellKnownNames(ACCEPT, ACCEPT_ENCODING, ACCEPT_LANGUAGE, AUTHORIZATION,
+            CACHE_CONTROL, CONNECTION, CONTENT_DISPOSITION, CONTENT_ENCODING, CONTENT_LENGTH, CONTENT_TYPE, COOKIE, EXPECT, HOST,
+            IF_MODIFIED_SINCE, IF_NONE_MATCH, ORIGIN, PRAGMA, PROXY_CONNECTION, RANGE, REFERER, TRANSFER_ENCODING, UPGRADE,
+            USER_AGENT, X_FORWARDED_FOR, X_REAL_IP);
+
+    private String[] names = new String[16];
+    private String[] values = new String[16];
+    /**
+     * 值在 valueBytes 中的位置，length 为 -1 时表示值直接保存在 values 中
+     */
+    private int[] valueOffsets = new int[16];
+    private int[] valueLengths = new int[16];
+    private byte[] valueBytes = new byte[512];
+    private int valueBytesLength;
+    private int size;
+    /**
+     * 开放寻址的索引表，保存 names 中的下标 + 1，0 表示空
+     */
+    private int[] table = new int[32];
+
+    /**
+     * 常用的请求头返回对应的常量，其他的创建新的 String
+     */
+    public static String toHeaderName(byte[] bytes, int offset, int length) {
+        int mask = WELL_KNOWN_NAMES.length - 1;
+        for (int i = hash(bytes, offset, length) & mask; WELL_KNOWN_NAMES[i] != null; i = (i + 1) & mask) {
+            if (equalsIgnoreCase(WELL_KNOWN_NAMES[i], bytes, offset, length)) {
+                return WELL_KNOWN_NAMES[i];
+            }
+        }
+        return new String(bytes, offset, length);
+    }
+
+    /**
+     * 保存解析得到的请求头，值只复制字节，同名的请求头会覆盖之前的值
+     */
+    public void add(String name, byte[] bytes, int offset, int length) {
+        if (valueBytesLength + length > valueBytes.length) {
+            valueBytes = Arrays.copyOf(valueBytes, Math.max(valueBytes.length << 1, valueBytesLength + length));
+        }
+        System.arraycopy(bytes, offset, valueBytes, valueBytesLength, length);
+        int index = indexOf(name);
+        if (index < 0) {
+            index = append(name);
+        }
+        values[index] = null;
+        valueOffsets[index] = valueBytesLength;
+        valueLengths[index] = length;
+        valueBytesLength += length;
+    }
+
+    @Override
+    public String get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int index = indexOf((String) key);
+        return index < 0 ? null : valueAt(index);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && indexOf((String) key) >= 0;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        int index = indexOf(key);
+        String oldValue = null;
+        if (index < 0) {
+            index = append(key);
+        } else {
+            oldValue = valueAt(index);
+        }
+        values[index] = value;
+        valueLengths[index] = -1;
+        return oldValue;
+    }
+
+    @Override
+    public String remove(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int index = indexOf((String) key);
+        if (index < 0) {
+            return null;
+        }
+        String oldValue = valueAt(index);
+        int moved = size - index - 1;
+        System.arraycopy(names, index + 1, names, index, moved);
+        System.arraycopy(values, index + 1, values, index, moved);
+        System.arraycopy(valueOffsets, index + 1, valueOffsets, index, moved);
+        System.arraycopy(valueLengths, index + 1, valueLengths, index, moved);
+        size--;
+        names[size] = null;
+        values[size] = null;
+        rebuildTable(table.length);
+        return oldValue;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        Arrays.fill(table, 0);
+        size = 0;
+        valueBytesLength = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<Entry<String, String>>() {
+                    private int next;
+                    private int last = -1;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (next >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        last = next++;
+                        return new SimpleImmutableEntry<>(names[last], valueAt(last));
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (last < 0) {
+                            throw new IllegalStateException();
+                        }
+                        HttpHeaders.this.remove(names[last]);
+                        next = last;
+                        last = -1;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private String valueAt(int index) {
+        if (values[index] == null && valueLengths[index] >= 0) {
+            values[index] = new String(valueBytes, valueOffsets[index], valueLengths[index]);
+        }
+        return values[index];
+    }
+
+    private int indexOf(String name) {
+        int mask = table.length - 1;
+        for (int i = hash(name) & mask; table[i] != 0; i = (i + 1) & mask) {
+            String current = names[table[i] - 1];
+            if (current.equalsIgnoreCase(name)) {
+                return table[i] - 1;
+            }
+        }
+        return -1;
+    }
+
+    private int append(String name) {
+        if (size == names.length) {
+            int capacity = size << 1;
+            names = Arrays.copyOf(names, capacity);
+            values = Arrays.copyOf(values, capacity);
+            valueOffsets = Arrays.copyOf(valueOffsets, capacity);
+            valueLengths = Arrays.copyOf(valueLengths, capacity);
+        }
+        int index = size++;
+        names[index] = name;
+        if (size << 1 > table.length) {
+            rebuildTable(table.length << 1);
+        } else {
+            insert(table, index);
+        }
+        return index;
+    }
+
+    private void rebuildTable(int capacity) {
+        int[] newTable = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            insert(newTable, i);
+        }
+        table = newTable;
+    }
+
+    private void insert(int[] table, int index) {
+        int mask = table.length - 1;
+        int i = hash(names[index]) & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = index + 1;
+    }
+
+    private static String[] newWellKnownNames(String... names) {
+        int capacity = Integer.highestOneBit(names.length) << 2;
+        String[] wellKnownNames = new String[capacity];
+        for (String name : names) {
+            int i = hash(name) & (capacity - 1);
+            while (wellKnownNames[i] != null) {
+                i = (i + 1) & (capacity - 1);
+            }
+            wellKnownNames[i] = name;
+        }
+        return wellKnownNames;
+    }
+
+    private static int toLowerCase(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    private static int hash(String name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            h = 31 * h + toLowerCase(name.charAt(i));
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int h = 0;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + toLowerCase(bytes[i] & 0xff);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equalsIgnoreCase(String name, byte[] bytes, int offset, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (toLowerCase(name.charAt(i)) != toLowerCase(bytes[offset + i] & 0xff)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,135 @@
+package com.hibegin.http.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Transfer-Encoding: chunked 请求体的增量解码，数据可以分多次传入，chunk extension 和 trailer 会被忽略
+ * <p>
+ * 每次调用 decode 返回一段解码后的数据(传入的 ByteBuffer 的一部分，不复制)
+ * <p>
+ * chunk-size 只接受十六进制数字和后面的空白，CR 后面必须是 LF，避免和前面的代理对请求体的结束位置理解不一致(request smuggling)
+ */
+public class ChunkedBodyDecoder {
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    private enum State {
+        SIZE, EXTENSION, DATA, DATA_END, TRAILER, TRAILER_LINE, DONE
+    }
+
+    private State state = State.SIZE;
+    private long chunkSize;
+    private boolean hasSizeDigit;
+    /**
+     * chunk-size 后面已经出现了空白，不能再有数字
+     */
+    private boolean sizeEnded;
+    /**
+     * 上一个字节是 CR，这个字节必须是 LF
+     */
+    private boolean expectLF;
+    private long chunkRemaining;
+
+    /**
+     * @return 下一段数据，需要更多的数据或者已经解码完成时返回 null，之后的数据(下一个请求)留在 byteBuffer 中
+     */
+    public ByteBuffer decode(ByteBuffer byteBuffer) throws IOException {
+        while (state != State.DONE && byteBuffer.hasRemaining()) {
+            if (state == State.DATA) {
+                int length = (int) Math.min(chunkRemaining, byteBuffer.remaining());
+                ByteBuffer data = byteBuffer.slice();
+                data.limit(length);
+                byteBuffer.position(byteBuffer.position() + length);
+                chunkRemaining -= length;
+                if (chunkRemaining == 0) {
+                    state = State.DATA_END;
+                }
+                return data;
+            }
+            byte b = byteBuffer.get();
+            if (expectLF) {
+                if (b != LF) {
+                    throw new IOException("CR without LF in chunked request body");
+                }
+                expectLF = false;
+            } else if (b == CR) {
+                expectLF = true;
+                continue;
+            }
+            switch (state) {
+                case SIZE:
+                    parseSize(b);
+                    break;
+                case EXTENSION:
+                    if (b == LF) {
+                        endSizeLine();
+                    }
+                    break;
+                case DATA_END:
+                    if (b == LF) {
+                        state = State.SIZE;
+                    } else {
+                        throw new IOException("Missing CRLF after chunk data");
+                    }
+                    break;
+                case TRAILER:
+                    if (b == LF) {
+                        state = State.DONE;
+                    } else {
+                        state = State.TRAILER_LINE;
+                    }
+                    break;
+                case TRAILER_LINE:
+                    if (b == LF) {
+                        state = State.TRAILER;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return null;
+    }
+
+    private void parseSize(byte b) throws IOException {
+        if (b == LF) {
+            endSizeLine();
+        } else if (b == ';') {
+            state = State.EXTENSION;
+        } else if (b == ' ' || b == '\t') {
+            //只允许在数字后面
+            if (!hasSizeDigit) {
+                throw new IOException("Invalid chunk size");
+            }
+            sizeEnded = true;
+        } else {
+            int digit = Character.digit(b, 16);
+            if (digit < 0 || sizeEnded || chunkSize > (Long.MAX_VALUE >> 4)) {
+                throw new IOException("Invalid chunk size");
+            }
+            chunkSize = (chunkSize << 4) + digit;
+            hasSizeDigit = true;
+        }
+    }
+
+    private void endSizeLine() throws IOException {
+        if (!hasSizeDigit) {
+            throw new IOException("Invalid chunk size");
+        }
+        if (chunkSize == 0) {
+            state = State.TRAILER;
+        } else {
+            chunkRemaining = chunkSize;
+            state = State.DATA;
+        }
+        chunkSize = 0;
+        hasSizeDigit = false;
+        sizeEnded = false;
+    }
+
+    public boolean isDone() {
+        return state == State.DONE;
+    }
+}
@@ -1,6 +1,8 @@
 package com.hibegin.http.io;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.zip.CRC32;
 import java.util.zip.Deflater;
@@ -18,7 +20,38 @@ public class GzipCompressingInputStream extends SequenceInputStream {
     }
 
     public GzipCompressingInputStream(InputStream in, int bufferSize) throws IOException {
-        super(new StatefullGzipStreamEnumerator(in, bufferSize));
+        super(new StatefullGzipStreamEnumerator(in, bufferSize, null));
+    }
+
+    /**
+     * 使用传入的 Deflater(需要是 nowrap 的)，关闭时不会 end，由调用方归还或者释放
+     */
+    public GzipCompressingInputStream(InputStream in, int bufferSize, Deflater deflater) throws IOException {
+        super(new StatefullGzipStreamEnumerator(in, bufferSize, deflater));
+    }
+
+    /**
+     * 一次性压缩全部数据，使用传入的 Deflater(需要是 nowrap 的)，返回的 ByteBuffer 包含 gzip 的头和尾
+     */
+    public static ByteBuffer gzip(byte[] data, Deflater deflater) {
+        byte[] header = StatefullGzipStreamEnumerator.GZIP_HEADER;
+        //压缩后可能比原来大一点
+        byte[] out = new byte[header.length + data.length + (data.length >> 10) + 64];
+        System.arraycopy(header, 0, out, 0, header.length);
+        int length = header.length;
+        deflater.setInput(data);
+        deflater.finish();
+        while (!deflater.finished()) {
+            if (length + InternalGzipCompressingInputStream.TRAILER_SIZE >= out.length) {
+                out = Arrays.copyOf(out, out.length << 1);
+            }
+            length += deflater.deflate(out, length, out.length - InternalGzipCompressingInputStream.TRAILER_SIZE - length);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        InternalGzipCompressingInputStream.writeInt((int) crc.getValue(), out, length);
+        InternalGzipCompressingInputStream.writeInt(data.length, out, length + 4);
+        return ByteBuffer.wrap(out, 0, length + InternalGzipCompressingInputStream.TRAILER_SIZE);
     }
 
     static enum StreamState {
@@ -44,12 +77,14 @@ public class GzipCompressingInputStream extends SequenceInputStream {
         };
         protected final InputStream in;
         protected final int bufferSize;
+        protected final Deflater deflater;
         protected StreamState state;
         protected InternalGzipCompressingInputStream contentStream;
 
-        public StatefullGzipStreamEnumerator(InputStream in, int bufferSize) {
+        public StatefullGzipStreamEnumerator(InputStream in, int bufferSize, Deflater deflater) {
             this.in = in;
             this.bufferSize = bufferSize;
+            this.deflater = deflater;
             state = StreamState.HEADER;
         }
 
@@ -77,7 +112,7 @@ public class GzipCompressingInputStream extends SequenceInputStream {
         }
 
         protected InputStream createContentStream() {
-            contentStream = new InternalGzipCompressingInputStream(new CRC32InputStream(in), bufferSize);
+            contentStream = new InternalGzipCompressingInputStream(new CRC32InputStream(in), bufferSize, deflater);
             return contentStream;
         }
 
@@ -132,16 +167,20 @@ public class GzipCompressingInputStream extends SequenceInputStream {
     protected static class InternalGzipCompressingInputStream extends DeflaterInputStream {
         protected final static int TRAILER_SIZE = 8;
         protected final CRC32InputStream crcIn;
+        protected final boolean ownsDeflater;
 
-        public InternalGzipCompressingInputStream(CRC32InputStream in, int bufferSize) {
-            super(in, new Deflater(Deflater.DEFAULT_COMPRESSION, true), bufferSize);
+        public InternalGzipCompressingInputStream(CRC32InputStream in, int bufferSize, Deflater deflater) {
+            super(in, deflater != null ? deflater : new Deflater(Deflater.DEFAULT_COMPRESSION, true), bufferSize);
             crcIn = in;
+            ownsDeflater = deflater == null;
         }
 
         public void close() throws IOException {
             if (in != null) {
                 try {
-                    def.end();
+                    if (ownsDeflater) {
+                        def.end();
+                    }
                     in.close();
                 } finally {
                     in = null;
@@ -168,7 +207,7 @@ public class GzipCompressingInputStream extends SequenceInputStream {
          * Writes integer in Intel byte order to a byte array, starting at a
          * given offset.
          */
-        private void writeInt(int i, byte[] buf, int offset) {
+        private static void writeInt(int i, byte[] buf, int offset) {
             writeShort(i & 0xffff, buf, offset);
             writeShort((i >> 16) & 0xffff, buf, offset + 2);
         }
@@ -177,7 +216,7 @@ public class GzipCompressingInputStream extends SequenceInputStream {
          * Writes short integer in Intel byte order to a byte array, starting
          * at a given offset
          */
-        private void writeShort(int s, byte[] buf, int offset) {
+        private static void writeShort(int s, byte[] buf, int offset) {
             buf[offset] = (byte) (s & 0xff);
             buf[offset + 1] = (byte) ((s >> 8) & 0xff);
         }
@@ -8,6 +8,7 @@ import com.hibegin.http.server.config.ResponseConfig;
 import com.hibegin.http.server.config.ServerConfig;
 import com.hibegin.http.server.handler.ReadWriteSelectorHandler;
 import com.hibegin.http.server.handler.SSLChannelFactory;
+import com.hibegin.http.server.handler.SSLHandshakeMetrics;
 import com.hibegin.http.server.handler.SSLReadWriteSelectorHandler;
 
 import javax.net.ssl.SSLContext;
@@ -23,9 +24,20 @@ public class SimpleHttpsWebServer extends SimpleWebServer {
     private static final Logger LOGGER = LoggerUtil.getLogger(SimpleHttpsWebServer.class);
 
     private SSLContext sslContext;
+    private final SSLHandshakeMetrics sslHandshakeMetrics = new SSLHandshakeMetrics();
 
     public SimpleHttpsWebServer(ServerConfig serverConfig, RequestConfig requestConfig, ResponseConfig responseConfig) {
         super(serverConfig, requestConfig, responseConfig);
+        ServerConfig serverConf = getServerConfig();
+        if (serverConf.getSslSessionCacheSize() == 0 && ConfigKit.contains("server.ssl.sessionCacheSize")) {
+            serverConf.setSslSessionCacheSize(ConfigKit.getInt("server.ssl.sessionCacheSize", 0));
+        }
+        if (serverConf.getSslSessionTimeout() == 0 && ConfigKit.contains("server.ssl.sessionTimeout")) {
+            serverConf.setSslSessionTimeout(ConfigKit.getInt("server.ssl.sessionTimeout", 0));
+        }
+        if (serverConf.isSslSessionTicket() && ConfigKit.contains("server.ssl.sessionTicket")) {
+            serverConf.setSslSessionTicket(Boolean.valueOf(ConfigKit.get("server.ssl.sessionTicket", true).toString()));
+        }
         String password = ConfigKit.get("server.ssl.keystore.password", "").toString();
         String fileString = ConfigKit.get("server.ssl.keystore", null).toString();
         File file = null;
@@ -45,7 +57,7 @@ public class SimpleHttpsWebServer extends SimpleWebServer {
             throw new RuntimeException("keystore can't null or not exists");
         } else {
             try {
-                sslContext = SSLChannelFactory.getSSLContext(file, password);
+                sslContext = SSLChannelFactory.getSSLContext(file, password, serverConf);
             } catch (Exception e) {
                 LOGGER.log(Level.SEVERE, "", e);
             }
@@ -54,7 +66,11 @@ public class SimpleHttpsWebServer extends SimpleWebServer {
 
     @Override
     public ReadWriteSelectorHandler getReadWriteSelectorHandlerInstance(SocketChannel channel, SelectionKey key) throws IOException {
-        return new SSLReadWriteSelectorHandler(channel, key, sslContext);
+        return new SSLReadWriteSelectorHandler(channel, key, sslContext, getServerConfig().getWriteHighWaterMark(), getServerConfig().getByteBufferPool(), sslHandshakeMetrics);
+    }
+
+    public SSLHandshakeMetrics getSSLHandshakeMetrics() {
+        return sslHandshakeMetrics;
     }
 
     @Override
@@ -2,7 +2,6 @@ package com.hibegin.http.server;
 
 import com.hibegin.common.util.EnvKit;
 import com.hibegin.common.util.LoggerUtil;
-import com.hibegin.http.HttpMethod;
 import com.hibegin.http.server.api.ISocketServer;
 import com.hibegin.http.server.config.ConfigKit;
 import com.hibegin.http.server.config.RequestConfig;
@@ -16,7 +15,6 @@ import com.hibegin.http.server.web.MethodInterceptor;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.nio.channels.*;
 import java.util.Iterator;
 import java.util.Set;
@@ -39,6 +37,8 @@ public class SimpleWebServer implements ISocketServer {
     private ApplicationContext applicationContext = new ApplicationContext();
     private File pidFile;
     private HttpDecodeRunnable httpDecodeRunnable;
+    private SelectorEventLoop[] selectorEventLoops;
+    private int nextSelectorEventLoop;
 
     public SimpleWebServer() {
         this(null, null, null);
@@ -52,6 +52,18 @@ public class SimpleWebServer implements ISocketServer {
         if (serverConf.getTimeout() == 0 && ConfigKit.contains("server.timeout")) {
             serverConf.setTimeout(Integer.parseInt(ConfigKit.get("server.timeout", 60).toString()));
         }
+        if (serverConf.getSelectorThreadCount() == 0 && ConfigKit.contains("server.selectorThreadCount")) {
+            serverConf.setSelectorThreadCount(ConfigKit.getInt("server.selectorThreadCount", 0));
+        }
+        if (serverConf.getWriteHighWaterMark() == 0 && ConfigKit.contains("server.writeHighWaterMark")) {
+            serverConf.setWriteHighWaterMark(ConfigKit.getInt("server.writeHighWaterMark", 0));
+        }
+        if (!serverConf.isDirectBuffer() && ConfigKit.contains("server.directBuffer")) {
+            serverConf.setDirectBuffer(Boolean.valueOf(ConfigKit.get("server.directBuffer", false).toString()));
+        }
+        if (!serverConf.isUseVirtualThread() && ConfigKit.contains("server.useVirtualThread")) {
+            serverConf.setUseVirtualThread(Boolean.valueOf(ConfigKit.get("server.useVirtualThread", false).toString()));
+        }
         if (serverConf.getPort() == 0) {
             serverConf.setPort(ConfigKit.getServerPort());
         }
@@ -71,6 +83,19 @@ public class SimpleWebServer implements ISocketServer {
         } else if (this.requestConfig.getMaxRequestBodySize() == 0) {
             this.requestConfig.setMaxRequestBodySize(ConfigKit.getMaxRequestBodySize());
         }
+        if (this.requestConfig.getRequestBodyMemoryThreshold() < 0) {
+            this.requestConfig.setRequestBodyMemoryThreshold(Integer.MAX_VALUE);
+        } else if (this.requestConfig.getRequestBodyMemoryThreshold() == 0) {
+            this.requestConfig.setRequestBodyMemoryThreshold(ConfigKit.getRequestBodyMemoryThreshold());
+        }
+        if (this.requestConfig.getMaxRequestHeaderSize() < 0) {
+            this.requestConfig.setMaxRequestHeaderSize(Integer.MAX_VALUE);
+        } else if (this.requestConfig.getMaxRequestHeaderSize() == 0) {
+            this.requestConfig.setMaxRequestHeaderSize(ConfigKit.getMaxRequestHeaderSize());
+        }
+        if (!this.requestConfig.isStreamRequestBody() && ConfigKit.contains("server.streamRequestBody")) {
+            this.requestConfig.setStreamRequestBody(Boolean.valueOf(ConfigKit.get("server.streamRequestBody", false).toString()));
+        }
         if (this.requestConfig.getRouter() == null) {
             this.requestConfig.setRouter(serverConf.getRouter());
         }
@@ -85,7 +110,7 @@ public class SimpleWebServer implements ISocketServer {
     }
 
     public ReadWriteSelectorHandler getReadWriteSelectorHandlerInstance(SocketChannel channel, SelectionKey key) throws IOException {
-        return new PlainReadWriteSelectorHandler(channel);
+        return new PlainReadWriteSelectorHandler(channel, key, serverConfig.getWriteHighWaterMark(), serverConfig.getByteBufferPool());
     }
 
     @Override
@@ -111,6 +136,7 @@ public class SimpleWebServer implements ISocketServer {
             LOGGER.log(Level.WARNING, "save pid error " + e.getMessage());
         }
         startExecHttpRequestThread();
+        startSelectorEventLoops();
         while (selector.isOpen()) {
             try {
                 selector.select();
@@ -127,7 +153,12 @@ public class SimpleWebServer implements ISocketServer {
                                 channel = server.accept();
                                 if (channel != null) {
                                     channel.configureBlocking(false);
-                                    channel.register(selector, SelectionKey.OP_READ);
+                                    if (selectorEventLoops != null) {
+                                        selectorEventLoops[nextSelectorEventLoop].register(channel);
+                                        nextSelectorEventLoop = (nextSelectorEventLoop + 1) % selectorEventLoops.length;
+                                    } else {
+                                        channel.register(selector, SelectionKey.OP_READ);
+                                    }
                                 }
                             } catch (IOException e) {
                                 LOGGER.log(Level.SEVERE, "accept connect error", e);
@@ -136,10 +167,15 @@ public class SimpleWebServer implements ISocketServer {
                                     channel.close();
                                 }
                             }
-                        } else if (key.isReadable()) {
-                            httpDecodeRunnable.doRead((SocketChannel) key.channel(), key);
+                        } else {
+                            if (key.isWritable()) {
+                                httpDecodeRunnable.doWrite(key);
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                httpDecodeRunnable.doRead((SocketChannel) key.channel(), key);
+                            }
                         }
-                    } catch (IOException e) {
+                    } catch (IOException | CancelledKeyException e) {
                         //ignore，这里基本都是系统抛出来的异常了，比如连接被异常关闭，SSL握手失败
                     } catch (Exception e) {
                         LOGGER.log(Level.SEVERE, "", e);
@@ -159,41 +195,38 @@ public class SimpleWebServer implements ISocketServer {
      * 初始化处理请求的请求
      */
     private void startExecHttpRequestThread() {
-        ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(2);
+        ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
         checkRequestRunnable = new CheckRequestRunnable(applicationContext);
         httpDecodeRunnable = new HttpDecodeRunnable(applicationContext, this, requestConfig, responseConfig);
-        int httpDecodeCycle = 10;
-        if (EnvKit.isAndroid()) {
-            httpDecodeCycle = 100;
+        scheduledExecutorService.scheduleAtFixedRate(checkRequestRunnable, 0, CheckRequestRunnable.TICK_DURATION, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 配置了 selectorThreadCount 后，当前线程只负责 accept，读事件交给这些事件循环处理
+     */
+    private void startSelectorEventLoops() {
+        int selectorThreadCount = serverConfig.getSelectorThreadCount();
+        if (selectorThreadCount <= 0) {
+            return;
         }
-        scheduledExecutorService.scheduleAtFixedRate(checkRequestRunnable, 0, 1000, TimeUnit.MILLISECONDS);
-        scheduledExecutorService.scheduleAtFixedRate(httpDecodeRunnable, 0, httpDecodeCycle, TimeUnit.MILLISECONDS);
-        new Thread(ServerInfo.getName().toLowerCase() + "-http-request-eventloop-thread") {
-            @Override
-            public void run() {
-                while (true) {
-                    HttpRequestHandlerThread requestHandlerThread = httpDecodeRunnable.getHttpRequestHandlerThread();
-                    if (requestHandlerThread != null) {
-                        Socket socket = requestHandlerThread.getRequest().getHandler().getChannel().socket();
-                        if (requestHandlerThread.getRequest().getMethod() != HttpMethod.CONNECT) {
-                            HttpRequestHandlerThread oldHttpRequestHandlerThread = checkRequestRunnable.getChannelHttpRequestHandlerThreadMap().get(socket);
-                            //清除老的请求
-                            if (oldHttpRequestHandlerThread != null) {
-                                oldHttpRequestHandlerThread.close();
-                            }
-                            checkRequestRunnable.getChannelHttpRequestHandlerThreadMap().put(socket, requestHandlerThread);
-                            serverConfig.getRequestExecutor().execute(requestHandlerThread);
-                        } else {
-                            HttpRequestHandlerThread oldHttpRequestHandlerThread = checkRequestRunnable.getChannelHttpRequestHandlerThreadMap().get(socket);
-                            if (oldHttpRequestHandlerThread == null) {
-                                checkRequestRunnable.getChannelHttpRequestHandlerThreadMap().put(socket, requestHandlerThread);
-                                serverConfig.getRequestExecutor().execute(requestHandlerThread);
-                            }
-                        }
-                    }
+        SelectorEventLoop[] eventLoops = new SelectorEventLoop[selectorThreadCount];
+        try {
+            for (int i = 0; i < selectorThreadCount; i++) {
+                eventLoops[i] = new SelectorEventLoop(httpDecodeRunnable);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "open selector error, fallback to single selector", e);
+            for (SelectorEventLoop eventLoop : eventLoops) {
+                if (eventLoop != null) {
+                    eventLoop.close();
                 }
             }
-        }.start();
+            return;
+        }
+        for (int i = 0; i < selectorThreadCount; i++) {
+            new Thread(eventLoops[i], ServerInfo.getName().toLowerCase() + "-selector-thread-" + i).start();
+        }
+        selectorEventLoops = eventLoops;
     }
 
     @Override
@@ -201,6 +234,11 @@ public class SimpleWebServer implements ISocketServer {
         if (selector == null) {
             return;
         }
+        if (selectorEventLoops != null) {
+            for (SelectorEventLoop eventLoop : selectorEventLoops) {
+                eventLoop.close();
+            }
+        }
         try {
             selector.close();
             LOGGER.info(ServerInfo.getName() + " close success");
@@ -248,6 +286,10 @@ public class SimpleWebServer implements ISocketServer {
         return config;
     }
 
+    public ServerConfig getServerConfig() {
+        return serverConfig;
+    }
+
     public CheckRequestRunnable getCheckRequestRunnable() {
         return checkRequestRunnable;
     }
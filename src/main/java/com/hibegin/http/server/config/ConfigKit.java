@@ -31,6 +31,14 @@ public class ConfigKit {
         return getInt("server.maxRequestBodySize", 20971520);
     }
 
+    public static Integer getRequestBodyMemoryThreshold() {
+        return getInt("server.requestBodyMemoryThreshold", 65536);
+    }
+
+    public static Integer getMaxRequestHeaderSize() {
+        return getInt("server.maxRequestHeaderSize", 16384);
+    }
+
     public static Integer getServerPort() {
         return getInt("server.port", 6058);
     }
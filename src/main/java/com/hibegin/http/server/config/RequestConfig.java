@@ -10,6 +10,9 @@ public class RequestConfig {
     private Router router;
     private int maxRequestBodySize;
     private boolean recordRequestBody;
+    private boolean streamRequestBody;
+    private int requestBodyMemoryThreshold;
+    private int maxRequestHeaderSize;
 
     public boolean isDisableCookie() {
         return disableCookie;
@@ -62,4 +65,39 @@ public class RequestConfig {
     public void setRecordRequestBody(boolean recordRequestBody) {
         this.recordRequestBody = recordRequestBody;
     }
+
+    public int getRequestBodyMemoryThreshold() {
+        return requestBodyMemoryThreshold;
+    }
+
+    /**
+     * 开启 recordRequestBody 时，不超过这个大小的请求体保存在内存中，超过的写入临时文件，读取时通过内存映射访问。
+     * chunked 的请求体(multipart/form-data 除外)解码后超过这个大小时也写入临时文件
+     */
+    public void setRequestBodyMemoryThreshold(int requestBodyMemoryThreshold) {
+        this.requestBodyMemoryThreshold = requestBodyMemoryThreshold;
+    }
+
+    public int getMaxRequestHeaderSize() {
+        return maxRequestHeaderSize;
+    }
+
+    /**
+     * 请求行和请求头的最大长度(字节)，超过时返回 431 并关闭连接
+     */
+    public void setMaxRequestHeaderSize(int maxRequestHeaderSize) {
+        this.maxRequestHeaderSize = maxRequestHeaderSize;
+    }
+
+    public boolean isStreamRequestBody() {
+        return streamRequestBody;
+    }
+
+    /**
+     * 开启后有 Content-Length 的请求在请求头解析完成后就开始处理，请求体只能通过 HttpRequest.getInputStream() 边接收边读取，
+     * 不再解析表单和上传的文件(开启 recordRequestBody 时不生效)
+     */
+    public void setStreamRequestBody(boolean streamRequestBody) {
+        this.streamRequestBody = streamRequestBody;
+    }
 }
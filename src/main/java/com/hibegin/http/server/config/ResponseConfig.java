@@ -1,15 +1,36 @@
 package com.hibegin.http.server.config;
 
+import com.hibegin.common.util.DeflaterPool;
+import com.hibegin.http.server.util.CompressedResourceCache;
+import com.hibegin.http.server.util.ResourceValidators;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
 public class ResponseConfig {
 
     private boolean isGzip;
     private boolean disableCookie;
     private String charSet = "UTF-8";
+    private int gzipLevel = Deflater.DEFAULT_COMPRESSION;
+    private int gzipMinLength = 1024;
+    private List<String> gzipMimeTypes = Arrays.asList("text/*", "application/json", "application/javascript", "application/x-javascript",
+            "application/xml", "application/xhtml+xml", "application/rss+xml", "application/atom+xml", "image/svg+xml");
+    private DeflaterPool deflaterPool;
+    private long gzipCacheSize = 16 * 1024 * 1024;
+    private CompressedResourceCache compressedResourceCache;
+    private String staticResourceCacheControl = "no-cache";
+    private final Map<String, ResourceValidators> resourceValidatorsCache = ResourceValidators.newCache(4096);
 
     public boolean isGzip() {
         return isGzip;
     }
 
+    /**
+     * 开启后只有客户端支持(Accept-Encoding)、类型在 gzipMimeTypes 中并且不小于 gzipMinLength 的响应才会压缩
+     */
     public void setIsGzip(boolean isGzip) {
         this.isGzip = isGzip;
     }
@@ -29,4 +50,92 @@ public class ResponseConfig {
     public void setCharSet(String charSet) {
         this.charSet = charSet;
     }
+
+    public int getGzipLevel() {
+        return gzipLevel;
+    }
+
+    /**
+     * 0 ~ 9，默认为 Deflater.DEFAULT_COMPRESSION
+     */
+    public void setGzipLevel(int gzipLevel) {
+        this.gzipLevel = gzipLevel;
+        this.deflaterPool = null;
+    }
+
+    public int getGzipMinLength() {
+        return gzipMinLength;
+    }
+
+    /**
+     * 小于这个长度的响应体压缩后基本不会变小，直接返回
+     */
+    public void setGzipMinLength(int gzipMinLength) {
+        this.gzipMinLength = gzipMinLength;
+    }
+
+    public List<String> getGzipMimeTypes() {
+        return gzipMimeTypes;
+    }
+
+    /**
+     * 需要压缩的 Content-Type，以 "/*" 结尾时匹配整个大类，比如 text/*
+     */
+    public void setGzipMimeTypes(List<String> gzipMimeTypes) {
+        this.gzipMimeTypes = gzipMimeTypes;
+    }
+
+    /**
+     * 所有响应共用的 Deflater 池，压缩级别为 gzipLevel
+     */
+    public DeflaterPool getDeflaterPool() {
+        DeflaterPool pool = deflaterPool;
+        if (pool == null) {
+            pool = new DeflaterPool(gzipLevel);
+            deflaterPool = pool;
+        }
+        return pool;
+    }
+
+    public long getGzipCacheSize() {
+        return gzipCacheSize;
+    }
+
+    /**
+     * 静态文件压缩后的内容最多缓存的大小，0 表示不缓存
+     */
+    public void setGzipCacheSize(long gzipCacheSize) {
+        this.gzipCacheSize = gzipCacheSize;
+        this.compressedResourceCache = null;
+    }
+
+    /**
+     * 所有响应共用的静态资源压缩缓存
+     */
+    public CompressedResourceCache getCompressedResourceCache() {
+        CompressedResourceCache cache = compressedResourceCache;
+        if (cache == null) {
+            cache = new CompressedResourceCache(gzipCacheSize);
+            compressedResourceCache = cache;
+        }
+        return cache;
+    }
+
+    public String getStaticResourceCacheControl() {
+        return staticResourceCacheControl;
+    }
+
+    /**
+     * 静态文件响应的 Cache-Control，默认 no-cache(每次使用前都通过 ETag/Last-Modified 确认，没有变化时返回 304)，null 表示不设置
+     */
+    public void setStaticResourceCacheControl(String staticResourceCacheControl) {
+        this.staticResourceCacheControl = staticResourceCacheControl;
+    }
+
+    /**
+     * 静态资源的 ETag 和 Last-Modified，所有响应共用
+     */
+    public Map<String, ResourceValidators> getResourceValidatorsCache() {
+        return resourceValidatorsCache;
+    }
 }
@@ -1,6 +1,8 @@
 package com.hibegin.http.server.config;
 
+import com.hibegin.common.util.ByteBufferPool;
 import com.hibegin.common.util.LoggerUtil;
+import com.hibegin.common.util.VirtualThreadKit;
 import com.hibegin.http.server.SimpleWebServer;
 import com.hibegin.http.server.api.HttpRequestListener;
 import com.hibegin.http.server.api.Interceptor;
@@ -32,6 +34,15 @@ public class ServerConfig {
     private String welcomeFile = "index.html";
     private Executor requestExecutor;
     private Executor decodeExecutor;
+    private Executor handshakeExecutor;
+    private int selectorThreadCount;
+    private int writeHighWaterMark;
+    private boolean directBuffer;
+    private ByteBufferPool byteBufferPool;
+    private boolean useVirtualThread;
+    private int sslSessionCacheSize;
+    private int sslSessionTimeout;
+    private boolean sslSessionTicket = true;
     private String sessionId = "JSESSIONID";
     private Router router = new Router();
     private StaticResourceLoader defaultStaticResourceClassLoader = new StaticResourceLoader() {
@@ -60,7 +71,14 @@ public class ServerConfig {
 
     public Executor getRequestExecutor() {
         if (requestExecutor == null) {
-            requestExecutor = Executors.newFixedThreadPool(10);
+            if (useVirtualThread && VirtualThreadKit.isSupported()) {
+                requestExecutor = VirtualThreadKit.newVirtualThreadPerTaskExecutor();
+            } else {
+                if (useVirtualThread) {
+                    LOGGER.log(Level.WARNING, "virtual thread need jdk21+, fallback to fixed thread pool");
+                }
+                requestExecutor = Executors.newFixedThreadPool(10);
+            }
         }
         return requestExecutor;
     }
@@ -124,6 +142,112 @@ public class ServerConfig {
         this.decodeExecutor = decodeExecutor;
     }
 
+    /**
+     * 执行 SSL 握手及 SSLEngine 的 delegated task
+     */
+    public Executor getHandshakeExecutor() {
+        if (handshakeExecutor == null) {
+            handshakeExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+        return handshakeExecutor;
+    }
+
+    public void setHandshakeExecutor(Executor handshakeExecutor) {
+        this.handshakeExecutor = handshakeExecutor;
+    }
+
+    /**
+     * 大于 0 时，由单独的 acceptor 线程接收连接，再轮流分配给对应数量的读事件循环(每个都有自己的 Selector)
+     */
+    public int getSelectorThreadCount() {
+        return selectorThreadCount;
+    }
+
+    public void setSelectorThreadCount(int selectorThreadCount) {
+        this.selectorThreadCount = selectorThreadCount;
+    }
+
+    /**
+     * 单个连接发送队列中的数据超过这个大小(字节)后，写入的线程需要等待数据被写出，0 表示使用默认值 1MB
+     */
+    public int getWriteHighWaterMark() {
+        return writeHighWaterMark;
+    }
+
+    public void setWriteHighWaterMark(int writeHighWaterMark) {
+        this.writeHighWaterMark = writeHighWaterMark;
+    }
+
+    public boolean isDirectBuffer() {
+        return directBuffer;
+    }
+
+    /**
+     * 读写连接数据时使用的 ByteBuffer 是否从堆外内存分配，需要在服务启动前设置
+     */
+    public void setDirectBuffer(boolean directBuffer) {
+        this.directBuffer = directBuffer;
+    }
+
+    /**
+     * 所有连接共用的 ByteBuffer 池，可以通过 getHitRate() 查看复用的情况
+     */
+    public ByteBufferPool getByteBufferPool() {
+        if (byteBufferPool == null) {
+            byteBufferPool = new ByteBufferPool(directBuffer);
+        }
+        return byteBufferPool;
+    }
+
+    public void setByteBufferPool(ByteBufferPool byteBufferPool) {
+        this.byteBufferPool = byteBufferPool;
+    }
+
+    /**
+     * 服务端缓存的 SSL session 数量，0 表示使用 JDK 的默认值
+     */
+    public int getSslSessionCacheSize() {
+        return sslSessionCacheSize;
+    }
+
+    public void setSslSessionCacheSize(int sslSessionCacheSize) {
+        this.sslSessionCacheSize = sslSessionCacheSize;
+    }
+
+    /**
+     * 缓存的 SSL session 的有效时间(秒)，0 表示使用 JDK 的默认值
+     */
+    public int getSslSessionTimeout() {
+        return sslSessionTimeout;
+    }
+
+    public void setSslSessionTimeout(int sslSessionTimeout) {
+        this.sslSessionTimeout = sslSessionTimeout;
+    }
+
+    public boolean isSslSessionTicket() {
+        return sslSessionTicket;
+    }
+
+    /**
+     * 是否支持 session ticket(无状态的 session 复用，JDK13+)，通过系统属性 jdk.tls.server.enableSessionTicketExtension 设置，对整个 JVM 生效。
+     * 需要在进程第一次使用 SSL 之前设置，启动参数中指定了这个属性或者其他服务已经设置过时以已有的值为准
+     */
+    public void setSslSessionTicket(boolean sslSessionTicket) {
+        this.sslSessionTicket = sslSessionTicket;
+    }
+
+    public boolean isUseVirtualThread() {
+        return useVirtualThread;
+    }
+
+    /**
+     * 每个请求使用一个虚拟线程处理(JDK21+)，低版本的 JDK 继续使用默认的线程池，设置了 requestExecutor 时不生效
+     */
+    public void setUseVirtualThread(boolean useVirtualThread) {
+        this.useVirtualThread = useVirtualThread;
+    }
+
     public List<Class<? extends Interceptor>> getInterceptors() {
         return interceptors;
     }
@@ -0,0 +1,10 @@
+package com.hibegin.http.server.execption;
+
+public class NotFoundException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public NotFoundException(String message) {
+        super(message);
+    }
+}
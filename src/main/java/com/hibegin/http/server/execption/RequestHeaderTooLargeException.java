@@ -0,0 +1,10 @@
+package com.hibegin.http.server.execption;
+
+public class RequestHeaderTooLargeException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RequestHeaderTooLargeException(String message) {
+        super(message);
+    }
+}
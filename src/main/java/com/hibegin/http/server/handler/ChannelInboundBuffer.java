@@ -0,0 +1,108 @@
+package com.hibegin.http.server.handler;
+
+import com.hibegin.common.util.ByteBufferPool;
+import com.hibegin.common.util.BytesUtil;
+import com.hibegin.common.util.IOUtil;
+import com.hibegin.http.server.util.FileCacheKit;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个连接读取到的数据，默认全部保存在内存中，只有待解码的数据超过 maxMemorySize 后才写入临时文件
+ * <p>
+ * 保存的通常是从 byteBufferPool 中借用的读取 buffer，按 remaining() 统计内存，写入临时文件或者被清除时归还，
+ * poll 出去的 buffer 由调用方在使用完后归还
+ */
+public class ChannelInboundBuffer {
+
+    private final Deque<Chunk> chunks = new ConcurrentLinkedDeque<>();
+    private final AtomicLong memorySize = new AtomicLong();
+    private final SelectionKey key;
+    private final int port;
+    private final long maxMemorySize;
+    private final ByteBufferPool byteBufferPool;
+
+    public ChannelInboundBuffer(SelectionKey key, int port, long maxMemorySize, ByteBufferPool byteBufferPool) {
+        this.key = key;
+        this.port = port;
+        this.maxMemorySize = maxMemorySize;
+        this.byteBufferPool = byteBufferPool;
+    }
+
+    public void append(ByteBuffer byteBuffer) {
+        chunks.add(toChunk(byteBuffer));
+    }
+
+    /**
+     * 解码后剩余的数据(比如下一个请求的数据)，需要放回到队列的最前面
+     */
+    public void addFirst(ByteBuffer byteBuffer) {
+        chunks.addFirst(toChunk(byteBuffer));
+    }
+
+    public ByteBuffer poll() throws IOException {
+        Chunk chunk = chunks.poll();
+        if (chunk == null) {
+            return null;
+        }
+        if (chunk.file == null) {
+            memorySize.addAndGet(-chunk.buffer.remaining());
+            return chunk.buffer;
+        }
+        try {
+            return ByteBuffer.wrap(IOUtil.getByteByInputStream(new FileInputStream(chunk.file)));
+        } finally {
+            chunk.file.delete();
+        }
+    }
+
+    public boolean isEmpty() {
+        return chunks.isEmpty();
+    }
+
+    public void clear() {
+        Chunk chunk;
+        while ((chunk = chunks.poll()) != null) {
+            if (chunk.file != null) {
+                chunk.file.delete();
+            } else {
+                byteBufferPool.release(chunk.buffer);
+            }
+        }
+        memorySize.set(0);
+    }
+
+    public SelectionKey getKey() {
+        return key;
+    }
+
+    private Chunk toChunk(ByteBuffer byteBuffer) {
+        int length = byteBuffer.remaining();
+        if (length > 0 && memorySize.get() + length > maxMemorySize) {
+            File file = FileCacheKit.generatorRequestTempFile(port, BytesUtil.toBytes(byteBuffer));
+            if (file.exists()) {
+                byteBufferPool.release(byteBuffer);
+                return new Chunk(null, file);
+            }
+        }
+        memorySize.addAndGet(length);
+        return new Chunk(byteBuffer, null);
+    }
+
+    private static class Chunk {
+        private final ByteBuffer buffer;
+        private final File file;
+
+        private Chunk(ByteBuffer buffer, File file) {
+            this.buffer = buffer;
+            this.file = file;
+        }
+    }
+}
@@ -1,106 +1,161 @@
 package com.hibegin.http.server.handler;
 
-import com.hibegin.common.util.EnvKit;
 import com.hibegin.common.util.LoggerUtil;
+import com.hibegin.common.util.TimingWheel;
+import com.hibegin.http.server.ApplicationContext;
 import com.hibegin.http.server.api.HttpRequestDeCoder;
 import com.hibegin.http.server.api.HttpResponse;
-import com.hibegin.http.server.ApplicationContext;
 
+import java.io.IOException;
 import java.net.Socket;
-import java.util.Date;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * 请求超时及连接的清理
+ * <p>
+ * 请求开始处理时在时间轮中添加超时任务，处理完成后取消，run() 每 TICK_DURATION 毫秒执行一次，只处理到期的任务，
+ * 不再需要遍历全部的连接。连接关闭时通过 clearChannel 清理对应的数据
+ */
 public class CheckRequestRunnable implements Runnable {
 
+    public static final int TICK_DURATION = 100;
+
     private static final Logger LOGGER = LoggerUtil.getLogger(CheckRequestRunnable.class);
 
-    private Map<Socket, HttpRequestHandlerThread> channelHttpRequestHandlerThreadMap;
-    private ApplicationContext applicationContext;
-    private Thread thread;
+    private final ConcurrentMap<Socket, HttpRequestHandlerThread> channelHttpRequestHandlerThreadMap = new ConcurrentHashMap<>();
+    /**
+     * 每个保持中的连接的空闲超时，新请求开始处理或者连接关闭时取消
+     */
+    private final ConcurrentMap<Socket, TimingWheel.Timeout> idleTimeoutMap = new ConcurrentHashMap<>();
+    private final TimingWheel timingWheel = new TimingWheel(TICK_DURATION, 512);
+    private final ApplicationContext applicationContext;
 
     public CheckRequestRunnable(ApplicationContext applicationContext) {
-        this.channelHttpRequestHandlerThreadMap = new ConcurrentHashMap<>();
         this.applicationContext = applicationContext;
     }
 
-    private int getRequestTimeout(){
+    private int getRequestTimeout() {
         return applicationContext.getServerConfig().getTimeout();
     }
 
     @Override
     public void run() {
-        if (EnvKit.isAndroid()) {
-            if (thread != null) {
-                thread.interrupt();
-            }
+        try {
+            timingWheel.tick();
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "e", e);
         }
-        thread = new Thread() {
-            @Override
-            public void run() {
-                try {
-                    clearRequestListener(getClosedRequestSocketSet());
-                    clearRequestDecode(getClosedDecodedSocketSet());
-                } catch (Exception e) {
-                    LOGGER.log(Level.SEVERE, "e", e);
+    }
+
+    /**
+     * 超过 timeout 还没有处理完成的请求，返回 504 并关闭连接
+     */
+    void requestStarted(final HttpRequestHandlerThread requestHandlerThread) {
+        requestHandlerThread.setCheckRequestRunnable(this);
+        cancelIdleTimeout(requestHandlerThread.getSocket());
+        if (getRequestTimeout() > 0) {
+            requestHandlerThread.setRequestTimeout(timingWheel.newTimeout(new Runnable() {
+                @Override
+                public void run() {
+                    final Socket socket = requestHandlerThread.getSocket();
+                    ReadWriteSelectorHandler handler = requestHandlerThread.getRequest().getHandler();
+                    if (handler.hasPendingWrite() || socket.isClosed()) {
+                        //已经开始响应，但对方一直没有读取
+                        closeChannel(handler);
+                        clearChannel(socket);
+                        return;
+                    }
+                    //写出响应时可能需要等待对方读取，不能在时间轮的线程中进行
+                    applicationContext.getServerConfig().getRequestExecutor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                if (!socket.isClosed()) {
+                                    requestHandlerThread.getResponse().addHeader("Connection", "close");
+                                    requestHandlerThread.getResponse().renderCode(504);
+                                }
+                            } finally {
+                                clearChannel(socket);
+                            }
+                        }
+                    });
                 }
-            }
-        };
-        if (EnvKit.isAndroid()) {
-            thread.start();
-        } else {
-            thread.run();
+            }, getRequestTimeout(), TimeUnit.SECONDS));
         }
     }
 
-    private void clearRequestListener(Set<Socket> removeHttpRequestList) {
-        for (Socket socket : removeHttpRequestList) {
-            if (channelHttpRequestHandlerThreadMap.get(socket) != null) {
-                channelHttpRequestHandlerThreadMap.get(socket).close();
-                channelHttpRequestHandlerThreadMap.remove(socket);
+    /**
+     * 保持连接的情况下，超过 timeout 都没有收到新的请求时关闭连接，新请求开始处理时(requestStarted)会取消
+     * <p>
+     * 后面还有请求在处理中(pipelining)时由最后一个请求完成时开始计时
+     */
+    void requestFinished(final HttpRequestHandlerThread requestHandlerThread) {
+        requestHandlerThread.cancelTimeout();
+        final Socket socket = requestHandlerThread.getSocket();
+        if (getRequestTimeout() > 0 && !socket.isClosed() && channelHttpRequestHandlerThreadMap.get(socket) == requestHandlerThread) {
+            TimingWheel.Timeout idleTimeout = timingWheel.newTimeout(new Runnable() {
+                @Override
+                public void run() {
+                    if (channelHttpRequestHandlerThreadMap.get(socket) != requestHandlerThread) {
+                        return;
+                    }
+                    Map.Entry<HttpRequestDeCoder, HttpResponse> codecEntry = applicationContext.getHttpDeCoderMap().get(socket);
+                    //下一个请求已经在读取中了
+                    if (codecEntry != null && codecEntry.getKey().getRequest().getMethod() != null) {
+                        return;
+                    }
+                    ReadWriteSelectorHandler handler = requestHandlerThread.getRequest().getHandler();
+                    if (handler.hasPendingWrite()) {
+                        closeChannel(handler);
+                    } else {
+                        handler.close();
+                    }
+                    clearChannel(socket);
+                }
+            }, getRequestTimeout(), TimeUnit.SECONDS);
+            TimingWheel.Timeout previous = idleTimeoutMap.put(socket, idleTimeout);
+            if (previous != null) {
+                previous.cancel();
             }
         }
     }
 
-    private Set<Socket> getClosedRequestSocketSet() {
-        Set<Socket> socketChannels = new CopyOnWriteArraySet<>();
-        for (Map.Entry<Socket, HttpRequestHandlerThread> entry : channelHttpRequestHandlerThreadMap.entrySet()) {
-            Socket socket = entry.getKey();
-            if (socket.isClosed()) {
-                socketChannels.add(entry.getKey());
-            }
-            if (getRequestTimeout() > 0) {
-                if (System.currentTimeMillis() - entry.getValue().getRequest().getCreateTime() > getRequestTimeout() * 1000) {
-                    entry.getValue().getResponse().renderCode(504);
-                    socketChannels.add(entry.getKey());
-                }
-            }
+    private void cancelIdleTimeout(Socket socket) {
+        TimingWheel.Timeout idleTimeout = idleTimeoutMap.remove(socket);
+        if (idleTimeout != null) {
+            idleTimeout.cancel();
         }
-        return socketChannels;
     }
 
-    private Set<Socket> getClosedDecodedSocketSet() {
-        Set<Socket> removeHttpRequestList = new CopyOnWriteArraySet<>();
-        for (Map.Entry<Socket, Map.Entry<HttpRequestDeCoder, HttpResponse>> entry : applicationContext.getHttpDeCoderMap().entrySet()) {
-            Socket socket = entry.getKey();
-            if (socket.isClosed() || !socket.isConnected()) {
-                removeHttpRequestList.add(socket);
-            }
+    /**
+     * 直接关闭 channel，不等待发送队列中的数据写完，避免阻塞时间轮的线程
+     */
+    private void closeChannel(ReadWriteSelectorHandler handler) {
+        try {
+            handler.getChannel().close();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "close channel error", e);
         }
-        return removeHttpRequestList;
     }
 
-    private void clearRequestDecode(Set<Socket> removeHttpRequestList) {
-        for (Socket socket : removeHttpRequestList) {
-            applicationContext.getHttpDeCoderMap().remove(socket);
+    /**
+     * 连接关闭后调用，清除这个连接相关的数据
+     */
+    public void clearChannel(Socket socket) {
+        cancelIdleTimeout(socket);
+        HttpRequestHandlerThread requestHandlerThread = channelHttpRequestHandlerThreadMap.remove(socket);
+        if (requestHandlerThread != null) {
+            requestHandlerThread.close();
         }
+        applicationContext.getHttpDeCoderMap().remove(socket);
     }
 
-    public Map<Socket, HttpRequestHandlerThread> getChannelHttpRequestHandlerThreadMap() {
+    public ConcurrentMap<Socket, HttpRequestHandlerThread> getChannelHttpRequestHandlerThreadMap() {
         return channelHttpRequestHandlerThreadMap;
     }
 }
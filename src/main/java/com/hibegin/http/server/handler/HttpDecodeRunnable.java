@@ -1,6 +1,6 @@
 package com.hibegin.http.server.handler;
 
-import com.hibegin.common.util.IOUtil;
+import com.hibegin.common.util.ByteBufferPool;
 import com.hibegin.common.util.LoggerUtil;
 import com.hibegin.http.HttpMethod;
 import com.hibegin.http.server.ApplicationContext;
@@ -10,37 +10,42 @@ import com.hibegin.http.server.api.HttpResponse;
 import com.hibegin.http.server.config.RequestConfig;
 import com.hibegin.http.server.config.ResponseConfig;
 import com.hibegin.http.server.config.ServerConfig;
+import com.hibegin.http.server.execption.NotFoundException;
 import com.hibegin.http.server.execption.RequestBodyTooLargeException;
+import com.hibegin.http.server.execption.RequestHeaderTooLargeException;
 import com.hibegin.http.server.execption.UnSupportMethodException;
 import com.hibegin.http.server.impl.HttpRequestDecoderImpl;
+import com.hibegin.http.server.impl.RequestBodyInputStream;
 import com.hibegin.http.server.impl.SimpleHttpResponse;
-import com.hibegin.http.server.util.FileCacheKit;
 import com.hibegin.http.server.util.FrameUtil;
 import com.hibegin.http.server.util.StatusCodeUtil;
 
 import java.io.*;
+import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.*;
-import java.util.concurrent.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class HttpDecodeRunnable implements Runnable {
+public class HttpDecodeRunnable {
 
     private static final Logger LOGGER = LoggerUtil.getLogger(HttpDecodeRunnable.class);
 
+    /**
+     * 单个连接中未解码的数据超过这个大小后，才写入临时文件
+     */
+    private static final int MAX_INBOUND_MEMORY_SIZE = 1024 * 1024;
+
     private ApplicationContext applicationContext;
-    private Map<SocketChannel, LinkedBlockingDeque<Map.Entry<SelectionKey, File>>> socketChannelBlockingQueueConcurrentHashMap = new ConcurrentHashMap<>();
     private SimpleWebServer simpleWebServer;
     private RequestConfig requestConfig;
     private ResponseConfig responseConfig;
     private ServerConfig serverConfig;
-    private Set<SocketChannel> workingChannel = new CopyOnWriteArraySet<>();
-
-    private BlockingQueue<HttpRequestHandlerThread> httpRequestHandlerThreadBlockingQueue = new LinkedBlockingQueue<>();
 
     public HttpDecodeRunnable(ApplicationContext applicationContext, SimpleWebServer simpleWebServer, RequestConfig requestConfig, ResponseConfig responseConfig) {
         this.applicationContext = applicationContext;
@@ -50,115 +55,256 @@ public class HttpDecodeRunnable implements Runnable {
         this.serverConfig = applicationContext.getServerConfig();
     }
 
-    @Override
-    public void run() {
-        List<SocketChannel> needRemoveChannel = new CopyOnWriteArrayList<>();
-        for (final Map.Entry<SocketChannel, LinkedBlockingDeque<Map.Entry<SelectionKey, File>>> entry : socketChannelBlockingQueueConcurrentHashMap.entrySet()) {
-            final SocketChannel channel = entry.getKey();
-            if (entry.getKey().socket().isClosed()) {
-                needRemoveChannel.add(channel);
-            } else {
-                if (!workingChannel.contains(channel)) {
-                    final LinkedBlockingDeque<Map.Entry<SelectionKey, File>> blockingQueue = entry.getValue();
-                    if (!blockingQueue.isEmpty()) {
-                        workingChannel.add(channel);
-                        Thread thread = new Thread() {
-                            @Override
-                            public void run() {
-                                while (!blockingQueue.isEmpty()) {
-                                    Map.Entry<SelectionKey, File> selectionKeyEntry = null;
-                                    try {
-                                        selectionKeyEntry = blockingQueue.take();
-                                    } catch (InterruptedException e) {
-                                        LOGGER.log(Level.SEVERE, "", e);
-                                    }
-                                    if (selectionKeyEntry != null) {
-                                        SelectionKey key = selectionKeyEntry.getKey();
-                                        Map.Entry<HttpRequestDeCoder, HttpResponse> codecEntry = applicationContext.getHttpDeCoderMap().get(channel.socket());
-                                        File file = selectionKeyEntry.getValue();
-                                        try {
-                                            if (codecEntry != null) {
-                                                Map.Entry<Boolean, ByteBuffer> booleanEntry = codecEntry.getKey().doDecode(ByteBuffer.wrap(IOUtil.getByteByInputStream(new FileInputStream(file))));
-                                                if (booleanEntry.getKey()) {
-                                                    if (booleanEntry.getValue().limit() > 0) {
-                                                        blockingQueue.addFirst(new AbstractMap.SimpleEntry<>(key, FileCacheKit.generatorRequestTempFile(serverConfig.getPort(), booleanEntry.getValue().array())));
-                                                    }
-                                                    if (serverConfig.isSupportHttp2()) {
-                                                        renderUpgradeHttp2Response(codecEntry.getValue());
-                                                    } else {
-                                                        httpRequestHandlerThreadBlockingQueue.add(new HttpRequestHandlerThread(codecEntry.getKey().getRequest(), codecEntry.getValue()));
-                                                        if (codecEntry.getKey().getRequest().getMethod() != HttpMethod.CONNECT) {
-                                                            HttpRequestDeCoder requestDeCoder = new HttpRequestDecoderImpl(requestConfig, applicationContext, codecEntry.getKey().getRequest().getHandler());
-                                                            codecEntry = new AbstractMap.SimpleEntry<HttpRequestDeCoder, HttpResponse>(requestDeCoder, new SimpleHttpResponse(requestDeCoder.getRequest(), responseConfig));
-                                                            applicationContext.getHttpDeCoderMap().put(channel.socket(), codecEntry);
-                                                        }
-                                                    }
-                                                }
-                                            }
-                                        } catch (EOFException | ClosedChannelException e) {
-                                            //do nothing
-                                            handleException(key, codecEntry.getKey(), null, 400);
-                                        } catch (UnSupportMethodException | IOException e) {
-                                            LOGGER.log(Level.SEVERE, "", e);
-                                            handleException(key, codecEntry.getKey(), new HttpRequestHandlerThread(codecEntry.getKey().getRequest(), codecEntry.getValue()), 400);
-                                        } catch (RequestBodyTooLargeException e) {
-                                            handleException(key, codecEntry.getKey(), new HttpRequestHandlerThread(codecEntry.getKey().getRequest(), codecEntry.getValue()), 413);
-                                        } catch (Exception e) {
-                                            handleException(key, codecEntry.getKey(), new HttpRequestHandlerThread(codecEntry.getKey().getRequest(), codecEntry.getValue()), 500);
-                                            LOGGER.log(Level.SEVERE, "", e);
-                                        } finally {
-                                            file.delete();
-                                        }
+    /**
+     * 解码当前连接中已经读取到的全部数据，同一个连接同一时刻只会有一个线程在执行
+     */
+    private void decode(ChannelDecodeTask decodeTask) {
+        SocketChannel channel = decodeTask.channel;
+        ChannelInboundBuffer inboundBuffer = decodeTask.inboundBuffer;
+        SelectionKey key = inboundBuffer.getKey();
+        while (!inboundBuffer.isEmpty()) {
+            Map.Entry<HttpRequestDeCoder, HttpResponse> codecEntry = applicationContext.getHttpDeCoderMap().get(channel.socket());
+            try {
+                ByteBuffer byteBuffer = inboundBuffer.poll();
+                if (decodeTask.requestBody != null && byteBuffer != null) {
+                    //上一个请求已经开始处理了，这里是它还没接收完的请求体
+                    if (offerRequestBody(decodeTask, byteBuffer)) {
+                        continue;
+                    }
+                    return;
+                }
+                if (codecEntry != null && byteBuffer != null) {
+                    Map.Entry<Boolean, ByteBuffer> booleanEntry = codecEntry.getKey().doDecode(byteBuffer);
+                    if (codecEntry.getKey() instanceof HttpRequestDecoderImpl) {
+                        //剩余的数据已经复制出来了，只有流式的请求体还会持有 byteBuffer 中的数据
+                        releaseReadBuffer(((HttpRequestDecoderImpl) codecEntry.getKey()).getRequestBodyInputStream(), byteBuffer);
+                    }
+                    if (booleanEntry.getKey()) {
+                        if (booleanEntry.getValue().limit() > 0) {
+                            inboundBuffer.addFirst(booleanEntry.getValue());
+                        }
+                        if (serverConfig.isSupportHttp2()) {
+                            renderUpgradeHttp2Response(codecEntry.getValue());
+                        } else {
+                            dispatch(new HttpRequestHandlerThread(codecEntry.getKey().getRequest(), codecEntry.getValue()));
+                            if (codecEntry.getKey().getRequest().getMethod() != HttpMethod.CONNECT) {
+                                if (codecEntry.getKey() instanceof HttpRequestDecoderImpl) {
+                                    RequestBodyInputStream requestBody = ((HttpRequestDecoderImpl) codecEntry.getKey()).getRequestBodyInputStream();
+                                    if (requestBody != null && !requestBody.isComplete()) {
+                                        requestBody.setHandler(decodeTask.handler);
+                                        decodeTask.requestBody = requestBody;
                                     }
                                 }
-                                workingChannel.remove(channel);
+                                HttpRequestDeCoder requestDeCoder = new HttpRequestDecoderImpl(requestConfig, applicationContext, decodeTask.responseSequencer.newHandler());
+                                codecEntry = new AbstractMap.SimpleEntry<HttpRequestDeCoder, HttpResponse>(requestDeCoder, new SimpleHttpResponse(requestDeCoder.getRequest(), responseConfig));
+                                applicationContext.getHttpDeCoderMap().put(channel.socket(), codecEntry);
                             }
-                        };
-                        serverConfig.getDecodeExecutor().execute(thread);
+                        }
                     }
                 }
+                continue;
+            } catch (EOFException | ClosedChannelException e) {
+                //do nothing
+                handleException(key, codecEntry.getKey(), null, 400);
+            } catch (UnSupportMethodException | IOException e) {
+                LOGGER.log(Level.SEVERE, "", e);
+                handleException(key, codecEntry.getKey(), new HttpRequestHandlerThread(codecEntry.getKey().getRequest(), codecEntry.getValue()), 400);
+            } catch (RequestBodyTooLargeException e) {
+                handleException(key, codecEntry.getKey(), new HttpRequestHandlerThread(codecEntry.getKey().getRequest(), codecEntry.getValue()), 413);
+            } catch (RequestHeaderTooLargeException e) {
+                handleException(key, codecEntry.getKey(), new HttpRequestHandlerThread(codecEntry.getKey().getRequest(), codecEntry.getValue()), 431);
+            } catch (NotFoundException e) {
+                handleException(key, codecEntry.getKey(), new HttpRequestHandlerThread(codecEntry.getKey().getRequest(), codecEntry.getValue()), 404);
+            } catch (Exception e) {
+                handleException(key, codecEntry.getKey(), new HttpRequestHandlerThread(codecEntry.getKey().getRequest(), codecEntry.getValue()), 500);
+                LOGGER.log(Level.SEVERE, "", e);
             }
+            //连接已经被关闭，剩余的数据没有必要再解码了
+            inboundBuffer.clear();
         }
-        for (SocketChannel socketChannel : needRemoveChannel) {
-            LinkedBlockingDeque<Map.Entry<SelectionKey, File>> entry = socketChannelBlockingQueueConcurrentHashMap.get(socketChannel);
-            if (entry != null) {
-                while (!entry.isEmpty()) {
-                    entry.poll().getValue().delete();
-                }
-                socketChannelBlockingQueueConcurrentHashMap.remove(socketChannel);
+    }
+
+    /**
+     * 请求体的错误属于已经在处理中的上一个请求，由它的 read 抛出，不能用下一个请求的 codecEntry 返回错误响应
+     * <p>
+     * 返回 false 表示请求体接收失败，连接已经被关闭
+     */
+    private boolean offerRequestBody(ChannelDecodeTask decodeTask, ByteBuffer byteBuffer) {
+        RequestBodyInputStream requestBody = decodeTask.requestBody;
+        try {
+            requestBody.offer(byteBuffer);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Receive request body error", e);
+            requestBody.fail(e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e));
+            releaseReadBuffer(requestBody, byteBuffer);
+            decodeTask.requestBody = null;
+            closeChannel(decodeTask.inboundBuffer.getKey());
+            decodeTask.inboundBuffer.clear();
+            return false;
+        }
+        if (requestBody.isComplete()) {
+            decodeTask.requestBody = null;
+            if (byteBuffer.hasRemaining()) {
+                byte[] bytes = new byte[byteBuffer.remaining()];
+                byteBuffer.get(bytes);
+                decodeTask.inboundBuffer.addFirst(ByteBuffer.wrap(bytes));
             }
-            workingChannel.remove(socketChannel);
         }
+        releaseReadBuffer(requestBody, byteBuffer);
+        return true;
     }
 
-    public HttpRequestHandlerThread getHttpRequestHandlerThread() {
-        try {
-            return httpRequestHandlerThreadBlockingQueue.take();
-        } catch (InterruptedException e) {
-            LOGGER.log(Level.SEVERE, "", e);
+    /**
+     * 读取用的 buffer 在解码完成后归还到 byteBufferPool，流式的请求体还持有其中的数据时由它在读取完后归还
+     */
+    private void releaseReadBuffer(RequestBodyInputStream requestBody, ByteBuffer byteBuffer) {
+        ByteBufferPool byteBufferPool = serverConfig.getByteBufferPool();
+        if (requestBody == null || !requestBody.releaseAfterRead(byteBuffer, byteBufferPool)) {
+            byteBufferPool.release(byteBuffer);
+        }
+    }
+
+    /**
+     * 解码完成后直接提交到 requestExecutor，同一个连接的解码是串行的，所以这里对同一个 socket 不存在竞争
+     * <p>
+     * 同一个连接上前面的请求可能还在处理中(pipelining)，它们完成后自己结束，响应的顺序由 ResponseSequencer 保证
+     */
+    private void dispatch(HttpRequestHandlerThread requestHandlerThread) {
+        Socket socket = requestHandlerThread.getRequest().getHandler().getChannel().socket();
+        CheckRequestRunnable checkRequestRunnable = simpleWebServer.getCheckRequestRunnable();
+        ConcurrentMap<Socket, HttpRequestHandlerThread> handlerThreadMap = checkRequestRunnable.getChannelHttpRequestHandlerThreadMap();
+        if (requestHandlerThread.getRequest().getMethod() != HttpMethod.CONNECT) {
+            handlerThreadMap.put(socket, requestHandlerThread);
+            checkRequestRunnable.requestStarted(requestHandlerThread);
+            serverConfig.getRequestExecutor().execute(requestHandlerThread);
+        } else if (handlerThreadMap.putIfAbsent(socket, requestHandlerThread) == null) {
+            checkRequestRunnable.requestStarted(requestHandlerThread);
+            serverConfig.getRequestExecutor().execute(requestHandlerThread);
         }
-        return null;
     }
 
     public void doRead(SocketChannel channel, SelectionKey key) throws IOException {
         if (channel != null && channel.isOpen()) {
-            Map.Entry<HttpRequestDeCoder, HttpResponse> codecEntry = applicationContext.getHttpDeCoderMap().get(channel.socket());
-            ReadWriteSelectorHandler handler;
-            if (codecEntry == null) {
-                handler = simpleWebServer.getReadWriteSelectorHandlerInstance(channel, key);
-                HttpRequestDeCoder requestDeCoder = new HttpRequestDecoderImpl(requestConfig, applicationContext, handler);
-                codecEntry = new AbstractMap.SimpleEntry<HttpRequestDeCoder, HttpResponse>(requestDeCoder, new SimpleHttpResponse(requestDeCoder.getRequest(), responseConfig));
+            ChannelDecodeTask decodeTask = (ChannelDecodeTask) key.attachment();
+            if (decodeTask == null) {
+                ReadWriteSelectorHandler handler;
+                try {
+                    handler = simpleWebServer.getReadWriteSelectorHandlerInstance(channel, key);
+                } catch (IOException e) {
+                    closeChannel(key);
+                    throw e;
+                }
+                decodeTask = new ChannelDecodeTask(channel, handler, new ChannelInboundBuffer(key, serverConfig.getPort(), MAX_INBOUND_MEMORY_SIZE, serverConfig.getByteBufferPool()));
+                key.attach(decodeTask);
+            }
+            ReadWriteSelectorHandler handler = decodeTask.handler;
+            if (applicationContext.getHttpDeCoderMap().get(channel.socket()) == null) {
+                HttpRequestDeCoder requestDeCoder = new HttpRequestDecoderImpl(requestConfig, applicationContext, decodeTask.responseSequencer.newHandler());
+                Map.Entry<HttpRequestDeCoder, HttpResponse> codecEntry = new AbstractMap.SimpleEntry<HttpRequestDeCoder, HttpResponse>(requestDeCoder, new SimpleHttpResponse(requestDeCoder.getRequest(), responseConfig));
                 applicationContext.getHttpDeCoderMap().put(channel.socket(), codecEntry);
-            } else {
-                handler = codecEntry.getKey().getRequest().getHandler();
             }
-            LinkedBlockingDeque<Map.Entry<SelectionKey, File>> entryBlockingQueue = socketChannelBlockingQueueConcurrentHashMap.get(channel);
-            if (entryBlockingQueue == null) {
-                entryBlockingQueue = new LinkedBlockingDeque<>();
-                socketChannelBlockingQueueConcurrentHashMap.put(channel, entryBlockingQueue);
+            if (handler instanceof SSLReadWriteSelectorHandler && !((SSLReadWriteSelectorHandler) handler).isHandshakeComplete()) {
+                handshake(key, (SSLReadWriteSelectorHandler) handler, decodeTask);
+                return;
+            }
+            try {
+                decodeTask.inboundBuffer.append(handler.handleRead());
+            } catch (IOException e) {
+                //对方关闭或者重置了连接
+                closeChannel(key);
+                throw e;
+            }
+            decodeTask.schedule();
+        }
+    }
+
+    /**
+     * SSL 握手(包括 SSLEngine 的 delegated task)交给 handshakeExecutor 执行，避免阻塞 selector 线程
+     * <p>
+     * 执行期间暂停这个连接的读事件，完成后再恢复(会唤醒 selector)
+     */
+    private void handshake(final SelectionKey key, final SSLReadWriteSelectorHandler handler, final ChannelDecodeTask decodeTask) {
+        handler.setReadInterest(false);
+        serverConfig.getHandshakeExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ByteBuffer byteBuffer = handler.handleRead();
+                    if (byteBuffer.capacity() > 0) {
+                        decodeTask.inboundBuffer.append(byteBuffer);
+                        decodeTask.schedule();
+                    }
+                    handler.setReadInterest(true);
+                } catch (Exception e) {
+                    //握手失败或者连接被关闭
+                    closeChannel(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * OP_WRITE 就绪，继续写出这个连接发送队列中的数据
+     */
+    public void doWrite(SelectionKey key) throws IOException {
+        ChannelDecodeTask decodeTask = (ChannelDecodeTask) key.attachment();
+        if (decodeTask != null) {
+            try {
+                decodeTask.handler.flush();
+            } catch (IOException e) {
+                closeChannel(key);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 保存在连接的 SelectionKey 上，连接关闭后随 SelectionKey 一起释放，不需要额外的清理
+     * <p>
+     * handler 也保存在这里，请求处理完成后 httpDeCoderMap 中的数据可能已经被清除了，发送队列中的数据还需要由 selector 继续写出
+     * <p>
+     * 读到数据后立即提交到 decodeExecutor，正在解码时只追加数据，由正在执行的任务继续处理
+     */
+    private class ChannelDecodeTask implements Runnable {
+
+        private final SocketChannel channel;
+        private final ReadWriteSelectorHandler handler;
+        private final ChannelInboundBuffer inboundBuffer;
+        private final ResponseSequencer responseSequencer;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        /**
+         * 流式读取请求体时，还没有接收完成的请求体
+         */
+        private volatile RequestBodyInputStream requestBody;
+
+        private ChannelDecodeTask(SocketChannel channel, ReadWriteSelectorHandler handler, ChannelInboundBuffer inboundBuffer) {
+            this.channel = channel;
+            this.handler = handler;
+            this.inboundBuffer = inboundBuffer;
+            this.responseSequencer = new ResponseSequencer(handler, serverConfig.getWriteHighWaterMark());
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                serverConfig.getDecodeExecutor().execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (channel.isOpen()) {
+                    decode(this);
+                } else {
+                    inboundBuffer.clear();
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            //避免在结束前追加的数据没有被处理
+            if (!inboundBuffer.isEmpty()) {
+                schedule();
             }
-            entryBlockingQueue.add(new AbstractMap.SimpleEntry<>(key,
-                    FileCacheKit.generatorRequestTempFile(serverConfig.getPort(), handler.handleRead().array())));
         }
     }
 
@@ -189,12 +335,21 @@ public class HttpDecodeRunnable implements Runnable {
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "error", e);
         } finally {
-            try {
-                key.channel().close();
-            } catch (IOException e) {
-                LOGGER.log(Level.SEVERE, "error", e);
-            }
-            key.cancel();
+            closeChannel(key);
+        }
+    }
+
+    private void closeChannel(SelectionKey key) {
+        ChannelDecodeTask decodeTask = (ChannelDecodeTask) key.attachment();
+        if (decodeTask != null && decodeTask.requestBody != null) {
+            decodeTask.requestBody.abort();
+        }
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "error", e);
         }
+        key.cancel();
+        simpleWebServer.getCheckRequestRunnable().clearChannel(((SocketChannel) key.channel()).socket());
     }
 }
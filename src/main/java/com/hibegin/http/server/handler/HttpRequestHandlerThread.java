@@ -1,6 +1,7 @@
 package com.hibegin.http.server.handler;
 
 import com.hibegin.common.util.LoggerUtil;
+import com.hibegin.common.util.TimingWheel;
 import com.hibegin.http.HttpMethod;
 import com.hibegin.http.server.api.HttpRequest;
 import com.hibegin.http.server.api.HttpRequestListener;
@@ -11,6 +12,7 @@ import com.hibegin.http.server.impl.SimpleHttpRequest;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -22,12 +24,16 @@ public class HttpRequestHandlerThread extends Thread {
 
     private HttpResponse response;
 
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private CheckRequestRunnable checkRequestRunnable;
+    private volatile TimingWheel.Timeout requestTimeout;
+
     HttpRequestHandlerThread(HttpRequest request, HttpResponse response) {
         this.request = request;
         this.response = response;
     }
 
-    private Socket getSocket() {
+    Socket getSocket() {
         return request.getHandler().getChannel().socket();
     }
 
@@ -57,14 +63,24 @@ public class HttpRequestHandlerThread extends Thread {
                 boolean keepAlive = responseConnection == null || !"close".equalsIgnoreCase(responseConnection);
                 if (!keepAlive) {
                     // 渲染错误页面
-                    if (!getSocket().isClosed()) {
+                    if (!getSocket().isClosed() && !request.getHandler().hasPendingWrite()) {
                         LOGGER.log(Level.WARNING, "forget close stream " + getSocket().toString());
                         response.renderCode(404);
                     }
                     close();
-                    request.getApplicationContext().getHttpDeCoderMap().remove(getSocket());
+                    if (checkRequestRunnable != null) {
+                        checkRequestRunnable.clearChannel(getSocket());
+                    } else {
+                        request.getApplicationContext().getHttpDeCoderMap().remove(getSocket());
+                    }
+                } else {
+                    //同一个连接上的其他请求可能还在处理中，这里只结束当前的请求
+                    close();
                 }
             }
+            if (checkRequestRunnable != null) {
+                checkRequestRunnable.requestFinished(this);
+            }
             //System.out.println("(System.nanoTime() - start) = " + (System.nanoTime() - request.getCreateTime()));
         }
     }
@@ -77,11 +93,32 @@ public class HttpRequestHandlerThread extends Thread {
         return response;
     }
 
+    void setCheckRequestRunnable(CheckRequestRunnable checkRequestRunnable) {
+        this.checkRequestRunnable = checkRequestRunnable;
+    }
+
+    void setRequestTimeout(TimingWheel.Timeout requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    void cancelTimeout() {
+        if (requestTimeout != null) {
+            requestTimeout.cancel();
+        }
+    }
+
     public void close() {
+        cancelTimeout();
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        //轮到下一个请求写出响应
+        ResponseSequencer.complete(request.getHandler());
         if (getSocket().isClosed()) {
             request.getApplicationContext().getHttpDeCoderMap().remove(getSocket());
         }
         if (request instanceof SimpleHttpRequest) {
+            ((SimpleHttpRequest) request).closeInputStream();
             ((SimpleHttpRequest) request).deleteTempUploadFiles();
         }
         for (HttpRequestListener requestListener : request.getApplicationContext().getServerConfig().getHttpRequestListenerList()) {
@@ -1,75 +1,339 @@
 package com.hibegin.http.server.handler;
 
-import com.hibegin.common.util.BytesUtil;
+import com.hibegin.common.util.ByteBufferPool;
 import com.hibegin.common.util.LoggerUtil;
-import com.hibegin.http.server.api.HttpRequest;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * 写入的数据先尝试直接写入 channel，写不完的部分放入当前连接的发送队列，由 selector 在 OP_WRITE 就绪时继续写出
+ * <p>
+ * 队列中的数据超过 writeHighWaterMark 时，写入的线程会等待到队列中的数据被写出
+ */
 public class PlainReadWriteSelectorHandler implements ReadWriteSelectorHandler {
 
     private static final Logger LOGGER = LoggerUtil.getLogger(PlainReadWriteSelectorHandler.class);
 
-    protected ByteBuffer requestBB;
+    public static final int DEFAULT_WRITE_HIGH_WATER_MARK = 1024 * 1024;
+    protected static final ByteBufferPool DEFAULT_BYTE_BUFFER_POOL = new ByteBufferPool(false);
+
     protected SocketChannel sc;
+    protected final SelectionKey selectionKey;
+    protected final ByteBufferPool byteBufferPool;
+    private final int writeHighWaterMark;
+    /**
+     * 每次读取时从 byteBufferPool 中借用的大小，读满时加倍，最大为 ByteBufferPool.MAX_BUFFER_SIZE
+     */
+    private int readBufferSize = ByteBufferPool.MIN_BUFFER_SIZE;
     private final ReentrantLock lock = new ReentrantLock();
+    private final Condition writable = lock.newCondition();
+    private final Queue<ByteBuffer> outboundQueue = new ArrayDeque<>();
+    private long pendingBytes;
+    private boolean closeAfterFlush;
 
     public PlainReadWriteSelectorHandler(SocketChannel sc) {
+        this(sc, null, DEFAULT_WRITE_HIGH_WATER_MARK, DEFAULT_BYTE_BUFFER_POOL);
+    }
+
+    public PlainReadWriteSelectorHandler(SocketChannel sc, SelectionKey selectionKey, int writeHighWaterMark, ByteBufferPool byteBufferPool) {
         this.sc = sc;
-        this.requestBB = ByteBuffer.allocate(1024);
+        this.selectionKey = selectionKey;
+        this.writeHighWaterMark = writeHighWaterMark > 0 ? writeHighWaterMark : DEFAULT_WRITE_HIGH_WATER_MARK;
+        this.byteBufferPool = byteBufferPool;
     }
 
+    /**
+     * 调用后 byteBuffer 可能还在发送队列中，调用方不能再修改它
+     */
     @Override
     public void handleWrite(ByteBuffer byteBuffer) throws IOException {
+        write(new ByteBuffer[]{byteBuffer});
+    }
+
+    /**
+     * 使用 gathering write 一次写出多个 ByteBuffer(比如响应头和响应体)，不需要先合并成一个数组
+     */
+    @Override
+    public void handleWrite(ByteBuffer[] byteBuffers) throws IOException {
+        write(byteBuffers);
+    }
+
+    /**
+     * 使用 FileChannel.transferTo 直接从文件写入 socket(sendfile)，数据不需要复制到堆内存中
+     * <p>
+     * 先等待发送队列中已有的数据写完，保证数据的顺序，socket 的发送缓冲区满了之后等待 OP_WRITE 就绪再继续
+     */
+    @Override
+    public void handleWrite(FileChannel fileChannel, long position, long count) throws IOException {
         lock.lock();
         try {
-            while (byteBuffer.hasRemaining() && sc.isOpen()) {
-                int len = sc.write(byteBuffer);
-                if (len < 0) {
+            while (!outboundQueue.isEmpty() && sc.isOpen()) {
+                writable.await(1, TimeUnit.SECONDS);
+            }
+            while (count > 0 && sc.isOpen() && !closeAfterFlush) {
+                long len = fileChannel.transferTo(position, count, sc);
+                if (len > 0) {
+                    position += len;
+                    count -= len;
+                } else if (position >= fileChannel.size()) {
                     throw new EOFException();
+                } else {
+                    awaitChannelWritable();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(ByteBuffer[] byteBuffers) throws IOException {
+        enqueue(byteBuffers);
+        awaitWritable();
+    }
+
+    /**
+     * 写入 channel 或者放入发送队列，不会等待(没有注册到 selector 上时除外)
+     */
+    protected void enqueue(ByteBuffer[] byteBuffers) throws IOException {
+        lock.lock();
+        try {
+            if (closeAfterFlush || !sc.isOpen()) {
+                return;
+            }
+            if (selectionKey == null) {
+                //没有注册到 selector 上，只能直接写完
+                while (hasRemaining(byteBuffers) && sc.isOpen()) {
+                    long len = sc.write(byteBuffers);
+                    if (len < 0) {
+                        throw new EOFException();
+                    }
+                    if (len == 0) {
+                        awaitChannelWritable();
+                    }
+                }
+                return;
+            }
+            if (outboundQueue.isEmpty()) {
+                writeToChannel(byteBuffers);
+            }
+            if (!hasRemaining(byteBuffers)) {
+                return;
+            }
+            for (ByteBuffer byteBuffer : byteBuffers) {
+                if (byteBuffer.hasRemaining()) {
+                    outboundQueue.add(byteBuffer);
+                    pendingBytes += byteBuffer.remaining();
+                }
+            }
+            setWriteInterest(true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * socket 的发送缓冲区满了，需要持有 lock。注册到 selector 上时等待 OP_WRITE 就绪(flush 中通知)，
+     * 否则没有通知可以等待，间隔一段时间后再重试，避免空转
+     */
+    private void awaitChannelWritable() throws InterruptedException {
+        if (selectionKey != null) {
+            setWriteInterest(true);
+            writable.await(1, TimeUnit.SECONDS);
+        } else {
+            writable.await(10, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 发送队列中的数据超过 writeHighWaterMark 时，等待到队列中的数据被写出，等待期间不持有锁
+     */
+    protected void awaitWritable() throws IOException {
+        lock.lock();
+        try {
+            while (pendingBytes > writeHighWaterMark && sc.isOpen()) {
+                //channel 被直接关闭时不会通知，所以这里需要定时检查
+                writable.await(1, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 由 selector 线程在 OP_WRITE 就绪时调用，队列写完后取消 OP_WRITE，调用过 close() 的连接在这时才真正关闭
+     */
+    @Override
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            writeToChannel(outboundQueue.toArray(new ByteBuffer[outboundQueue.size()]));
+            pendingBytes = 0;
+            for (Iterator<ByteBuffer> iterator = outboundQueue.iterator(); iterator.hasNext(); ) {
+                ByteBuffer byteBuffer = iterator.next();
+                if (byteBuffer.hasRemaining()) {
+                    pendingBytes += byteBuffer.remaining();
+                } else {
+                    iterator.remove();
+                }
+            }
+            if (pendingBytes <= writeHighWaterMark) {
+                writable.signalAll();
+            }
+            if (outboundQueue.isEmpty()) {
+                setWriteInterest(false);
+                if (closeAfterFlush) {
+                    closeChannel();
                 }
             }
+        } catch (IOException e) {
+            closeChannel();
+            throw e;
         } finally {
             lock.unlock();
         }
+    }
 
+    @Override
+    public boolean hasPendingWrite() {
+        lock.lock();
+        try {
+            return !outboundQueue.isEmpty();
+        } finally {
+            lock.unlock();
+        }
     }
 
+    private static boolean hasRemaining(ByteBuffer[] byteBuffers) {
+        for (ByteBuffer byteBuffer : byteBuffers) {
+            if (byteBuffer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeToChannel(ByteBuffer[] byteBuffers) throws IOException {
+        while (hasRemaining(byteBuffers)) {
+            long len = sc.write(byteBuffers);
+            if (len < 0) {
+                throw new EOFException();
+            }
+            if (len == 0) {
+                //内核的发送缓冲区满了
+                break;
+            }
+        }
+    }
+
+    private void setWriteInterest(boolean write) {
+        setInterest(SelectionKey.OP_WRITE, write);
+    }
+
+    /**
+     * 暂停或恢复这个连接的读事件，和 OP_WRITE 的修改使用同一个锁，避免相互覆盖
+     */
+    public void setReadInterest(boolean read) {
+        lock.lock();
+        try {
+            setInterest(SelectionKey.OP_READ, read);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void setInterest(int op, boolean interest) {
+        try {
+            int ops = selectionKey.interestOps();
+            int newOps = interest ? ops | op : ops & ~op;
+            if (ops != newOps) {
+                selectionKey.interestOps(newOps);
+                if (interest) {
+                    selectionKey.selector().wakeup();
+                }
+            }
+        } catch (CancelledKeyException e) {
+            //ignore，连接已经被关闭了
+        }
+    }
+
+    /**
+     * 读取用的 buffer 从 byteBufferPool 中借用，读到的数据不复制直接返回，由 HttpDecodeRunnable 解码完成
+     * (或者流式的请求体被读取完)后归还，空闲的连接不占用读缓冲区
+     */
     @Override
     public ByteBuffer handleRead() throws IOException {
-        int length = sc.read(requestBB);
+        ByteBuffer readBuffer = byteBufferPool.acquire(readBufferSize);
+        int length;
+        try {
+            length = sc.read(readBuffer);
+        } catch (IOException e) {
+            byteBufferPool.release(readBuffer);
+            throw e;
+        }
         if (length != -1) {
-            ByteBuffer byteBuffer = ByteBuffer.allocate(length);
-            byteBuffer.put(BytesUtil.subBytes(requestBB.array(), 0, length));
-            resizeRequestBB(length);
-            return byteBuffer;
+            if (length == readBuffer.capacity() && readBufferSize < ByteBufferPool.MAX_BUFFER_SIZE) {
+                // Expand buffer for large request
+                readBufferSize <<= 1;
+            }
+            readBuffer.flip();
+            return readBuffer;
         }
-        close();
+        byteBufferPool.release(readBuffer);
+        closeChannel();
         throw new EOFException();
     }
 
-    protected void resizeRequestBB(int remaining) {
-        if (requestBB.remaining() < remaining) {
-            // Expand buffer for large request
-            requestBB = ByteBuffer.allocate(requestBB.capacity() * 2);
-        } else {
-            requestBB = ByteBuffer.allocate(requestBB.capacity());
+    /**
+     * 发送队列中还有数据时，等数据写完后再关闭
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (outboundQueue.isEmpty()) {
+                closeChannel();
+            } else {
+                closeAfterFlush = true;
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
-    public void close() {
+    private void closeChannel() {
+        lock.lock();
         try {
+            outboundQueue.clear();
+            pendingBytes = 0;
+            writable.signalAll();
             sc.close();
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "close SocketChannel", e);
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -2,11 +2,26 @@ package com.hibegin.http.server.handler;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SocketChannel;
 
 public interface ReadWriteSelectorHandler {
     void handleWrite(ByteBuffer byteBuffer) throws IOException;
 
+    void handleWrite(ByteBuffer[] byteBuffers) throws IOException;
+
+    /**
+     * 把文件中 [position, position + count) 的数据写出，返回时数据已经全部交给了 channel
+     */
+    void handleWrite(FileChannel fileChannel, long position, long count) throws IOException;
+
+    /**
+     * 继续写出发送队列中的数据，由 selector 在 OP_WRITE 就绪时调用
+     */
+    void flush() throws IOException;
+
+    boolean hasPendingWrite();
+
     ByteBuffer handleRead() throws IOException;
 
     void close();
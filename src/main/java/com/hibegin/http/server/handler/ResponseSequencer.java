@@ -0,0 +1,246 @@
+package com.hibegin.http.server.handler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 同一个连接上流水线(pipelining)发送的多个请求可以同时处理，响应按照请求的顺序写出
+ * <p>
+ * 每个请求通过 newHandler() 得到自己的 handler，还没轮到的响应先缓存在内存中，前面的响应完成(complete)后再依次写出。
+ * 缓存超过 maxBufferSize 或者写文件时，等待轮到自己后再写。向 handler 写数据时不持有 lock，
+ * 对方不读取导致写入等待时，不会阻塞 close()、hasPendingWrite() 等其他线程(比如时间轮)的调用
+ */
+public class ResponseSequencer {
+
+    private final ReadWriteSelectorHandler handler;
+    private final long maxBufferSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition turnChanged = lock.newCondition();
+    private final List<SequencedHandler> waitingHandlers = new ArrayList<>();
+    private long nextSequence;
+    private long currentSequence;
+    /**
+     * 有线程正在(不持有 lock)向 handler 写数据
+     */
+    private boolean writing;
+
+    public ResponseSequencer(ReadWriteSelectorHandler handler, int maxBufferSize) {
+        this.handler = handler;
+        this.maxBufferSize = maxBufferSize > 0 ? maxBufferSize : PlainReadWriteSelectorHandler.DEFAULT_WRITE_HIGH_WATER_MARK;
+    }
+
+    /**
+     * 按照请求解码完成的顺序调用
+     */
+    public ReadWriteSelectorHandler newHandler() {
+        lock.lock();
+        try {
+            SequencedHandler sequencedHandler = new SequencedHandler(nextSequence++);
+            waitingHandlers.add(sequencedHandler);
+            return sequencedHandler;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 请求处理完成(或者被放弃)后调用，之后轮到下一个请求的响应
+     */
+    static void complete(ReadWriteSelectorHandler handler) {
+        if (handler instanceof SequencedHandler) {
+            ((SequencedHandler) handler).complete();
+        }
+    }
+
+    /**
+     * 当前请求完成后，把后面已经缓存好的响应依次写出，调用时需要持有 lock
+     * <p>
+     * 写出时会释放 lock，其他线程正在写出时直接返回，由那个线程写完后继续
+     */
+    private void advance() throws IOException {
+        while (!writing && !waitingHandlers.isEmpty()) {
+            SequencedHandler head = waitingHandlers.get(0);
+            if (head.sequence != currentSequence) {
+                break;
+            }
+            if (!head.buffered.isEmpty()) {
+                writeOutsideLock(head.takeBuffered(), null, 0, 0);
+                continue;
+            }
+            if (head.closeRequested) {
+                head.closeRequested = false;
+                handler.close();
+            }
+            if (!head.completed) {
+                break;
+            }
+            waitingHandlers.remove(0);
+            currentSequence++;
+        }
+        turnChanged.signalAll();
+    }
+
+    /**
+     * 写出可能因为对方没有读取而等待，所以不能持有 lock，writing 保证同一时间只有一个线程在写，数据的顺序不会乱
+     */
+    private void writeOutsideLock(ByteBuffer[] byteBuffers, FileChannel fileChannel, long position, long count) throws IOException {
+        writing = true;
+        lock.unlock();
+        try {
+            if (byteBuffers.length > 0) {
+                handler.handleWrite(byteBuffers);
+            }
+            if (fileChannel != null) {
+                handler.handleWrite(fileChannel, position, count);
+            }
+        } finally {
+            lock.lock();
+            writing = false;
+            turnChanged.signalAll();
+        }
+    }
+
+    private class SequencedHandler implements ReadWriteSelectorHandler {
+
+        private final long sequence;
+        private final List<ByteBuffer> buffered = new ArrayList<>();
+        /**
+         * hasPendingWrite() 会被时间轮的线程调用，不加锁读取
+         */
+        private volatile long bufferedBytes;
+        private boolean closeRequested;
+        private boolean completed;
+
+        private SequencedHandler(long sequence) {
+            this.sequence = sequence;
+        }
+
+        private boolean isMyTurn() {
+            return sequence <= currentSequence;
+        }
+
+        /**
+         * 等到轮到自己，并且没有其他线程在写
+         */
+        private void awaitTurn() throws IOException {
+            try {
+                while ((!isMyTurn() || writing) && handler.getChannel().isOpen()) {
+                    turnChanged.await(1, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        private ByteBuffer[] takeBuffered() {
+            ByteBuffer[] byteBuffers = buffered.toArray(new ByteBuffer[buffered.size()]);
+            buffered.clear();
+            bufferedBytes = 0;
+            return byteBuffers;
+        }
+
+        @Override
+        public void handleWrite(ByteBuffer byteBuffer) throws IOException {
+            handleWrite(new ByteBuffer[]{byteBuffer});
+        }
+
+        @Override
+        public void handleWrite(ByteBuffer[] byteBuffers) throws IOException {
+            lock.lock();
+            try {
+                for (ByteBuffer byteBuffer : byteBuffers) {
+                    if (byteBuffer.hasRemaining()) {
+                        buffered.add(byteBuffer);
+                        bufferedBytes += byteBuffer.remaining();
+                    }
+                }
+                if (!isMyTurn() && bufferedBytes <= maxBufferSize) {
+                    return;
+                }
+                awaitTurn();
+                if (!buffered.isEmpty()) {
+                    writeOutsideLock(takeBuffered(), null, 0, 0);
+                }
+                //写出期间其他线程可能调用了 close() 或 complete()
+                advance();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void handleWrite(FileChannel fileChannel, long position, long count) throws IOException {
+            lock.lock();
+            try {
+                awaitTurn();
+                writeOutsideLock(takeBuffered(), fileChannel, position, count);
+                advance();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            handler.flush();
+        }
+
+        @Override
+        public boolean hasPendingWrite() {
+            return bufferedBytes > 0 || handler.hasPendingWrite();
+        }
+
+        @Override
+        public ByteBuffer handleRead() throws IOException {
+            return handler.handleRead();
+        }
+
+        /**
+         * 没轮到或者还有缓存的数据时，等到前面的响应写出后再关闭
+         */
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                if (isMyTurn() && buffered.isEmpty() && !writing) {
+                    handler.close();
+                } else {
+                    closeRequested = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void complete() {
+            lock.lock();
+            try {
+                if (completed) {
+                    return;
+                }
+                completed = true;
+                if (isMyTurn()) {
+                    advance();
+                }
+            } catch (IOException e) {
+                handler.close();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public SocketChannel getChannel() {
+            return handler.getChannel();
+        }
+    }
+}
@@ -1,13 +1,22 @@
 package com.hibegin.http.server.handler;
 
+import com.hibegin.common.util.LoggerUtil;
+import com.hibegin.http.server.config.ServerConfig;
+
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import java.io.File;
 import java.io.FileInputStream;
 import java.security.KeyStore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class SSLChannelFactory {
 
+    private static final Logger LOGGER = LoggerUtil.getLogger(SSLChannelFactory.class);
+    private static final String SESSION_TICKET_PROPERTY = "jdk.tls.server.enableSessionTicketExtension";
+
     public static SSLContext getSSLContext(File file, String password) throws Exception {
         char[] passphrase = password.toCharArray();
         KeyStore ks = KeyStore.getInstance("JKS");
@@ -18,4 +27,29 @@ public class SSLChannelFactory {
         sslContext.init(kmf.getKeyManagers(), null, null);
         return sslContext;
     }
+
+    /**
+     * 按 serverConfig 设置 session 缓存的大小、有效时间及是否支持 session ticket
+     * <p>
+     * session ticket 只能通过系统属性 jdk.tls.server.enableSessionTicketExtension 设置，对整个 JVM 生效，并且 JSSE 只在第一次使用 SSL 时读取一次。
+     * 这里只在没有设置过时写入，之前已经使用过 SSL，或者同一个进程中的多个服务设置了不同的值时不会生效
+     */
+    public static SSLContext getSSLContext(File file, String password, ServerConfig serverConfig) throws Exception {
+        String sessionTicket = String.valueOf(serverConfig.isSslSessionTicket());
+        String effectiveSessionTicket = System.getProperty(SESSION_TICKET_PROPERTY);
+        if (effectiveSessionTicket == null) {
+            System.setProperty(SESSION_TICKET_PROPERTY, sessionTicket);
+        } else if (!sessionTicket.equalsIgnoreCase(effectiveSessionTicket.trim())) {
+            LOGGER.log(Level.WARNING, "sslSessionTicket=" + sessionTicket + " is ignored, " + SESSION_TICKET_PROPERTY + " is already " + effectiveSessionTicket + " for this JVM");
+        }
+        SSLContext sslContext = getSSLContext(file, password);
+        SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+        if (serverConfig.getSslSessionCacheSize() > 0) {
+            sessionContext.setSessionCacheSize(serverConfig.getSslSessionCacheSize());
+        }
+        if (serverConfig.getSslSessionTimeout() > 0) {
+            sessionContext.setSessionTimeout(serverConfig.getSslSessionTimeout());
+        }
+        return sslContext;
+    }
 }
@@ -0,0 +1,85 @@
+package com.hibegin.http.server.handler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SSL 握手的统计数据，耗时从收到连接的第一个数据开始计算，到握手完成为止
+ */
+public class SSLHandshakeMetrics {
+
+    private final long startTime = System.nanoTime();
+    private final AtomicLong handshakeCount = new AtomicLong();
+    private final AtomicLong resumedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    void handshakeFinished(long latencyNanos, boolean resumed) {
+        handshakeCount.incrementAndGet();
+        if (resumed) {
+            resumedCount.incrementAndGet();
+        }
+        totalLatency.addAndGet(latencyNanos);
+        long max;
+        while ((max = maxLatency.get()) < latencyNanos && !maxLatency.compareAndSet(max, latencyNanos)) {
+            //retry
+        }
+    }
+
+    void handshakeFailed() {
+        failedCount.incrementAndGet();
+    }
+
+    public long getHandshakeCount() {
+        return handshakeCount.get();
+    }
+
+    /**
+     * 需要完整密钥交换的握手次数
+     */
+    public long getFullHandshakeCount() {
+        return handshakeCount.get() - resumedCount.get();
+    }
+
+    /**
+     * 复用了 session(session id 或 session ticket)的握手次数
+     */
+    public long getResumedHandshakeCount() {
+        return resumedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * 服务启动以来平均每秒完成的握手次数
+     */
+    public double getHandshakeRate() {
+        double seconds = (System.nanoTime() - startTime) / (double) TimeUnit.SECONDS.toNanos(1);
+        return seconds <= 0 ? 0 : handshakeCount.get() / seconds;
+    }
+
+    public double getAverageLatencyMillis() {
+        long count = handshakeCount.get();
+        return count == 0 ? 0 : totalLatency.get() / (double) count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatency.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return "SSLHandshakeMetrics{" +
+                "handshakeCount=" + getHandshakeCount() +
+                ", fullHandshakeCount=" + getFullHandshakeCount() +
+                ", resumedHandshakeCount=" + getResumedHandshakeCount() +
+                ", failedCount=" + getFailedCount() +
+                ", handshakeRate=" + String.format("%.2f", getHandshakeRate()) +
+                ", averageLatencyMillis=" + String.format("%.2f", getAverageLatencyMillis()) +
+                ", maxLatencyMillis=" + String.format("%.2f", getMaxLatencyMillis()) +
+                '}';
+    }
+}
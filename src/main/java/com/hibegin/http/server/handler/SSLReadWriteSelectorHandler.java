@@ -35,7 +35,7 @@ package com.hibegin.http.server.handler;
  * nuclear facility.
  */
 
-import com.hibegin.common.util.BytesUtil;
+import com.hibegin.common.util.ByteBufferPool;
 import com.hibegin.common.util.LoggerUtil;
 
 import javax.net.ssl.SSLContext;
@@ -44,9 +44,11 @@ import javax.net.ssl.SSLEngineResult;
 import javax.net.ssl.SSLEngineResult.HandshakeStatus;
 import javax.net.ssl.SSLEngineResult.Status;
 import javax.net.ssl.SSLException;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.logging.Level;
@@ -119,22 +121,26 @@ public class SSLReadWriteSelectorHandler extends PlainReadWriteSelectorHandler {
      * operations.
      */
     private static ByteBuffer hsBB = ByteBuffer.allocate(0);
+    private static final int FILE_CHUNK_SIZE = 64 * 1024;
     private SSLEngine sslEngine = null;
     /*
      * All I/O goes through these buffers.
      * <P>
-     * It might be nice to use a cache of ByteBuffers so we're
-     * not alloc/dealloc'ing ByteBuffer's for each new SSLEngine.
+     * They are borrowed from the byteBufferPool only while the
+     * connection is handshaking, reading or writing, so an idle
+     * connection holds none of them.  inNetBB is the exception: it is
+     * kept while it holds a partial TLS record.
      * <P>
-     * We use our superclass' requestBB for our application input buffer.
+     * requestBB is our application input buffer.
      * Outbound application data is supplied to us by our callers.
      */
+    private ByteBuffer requestBB;
     private ByteBuffer inNetBB;
-    private ByteBuffer outNetBB;
-    /*
-     * The FileChannel we're currently transferTo'ing (reading).
-     */
-    private ByteBuffer fileChannelBB = null;
+    private final int netBBSize;
+    private final int appBBSize;
+    private final SSLHandshakeMetrics handshakeMetrics;
+    private final long handshakeStartTime;
+    private final long handshakeStartMillis;
 
     /*
      * During our initial handshake, keep track of the next
@@ -143,10 +149,11 @@ public class SSLReadWriteSelectorHandler extends PlainReadWriteSelectorHandler {
      *     NEED_WRAP/NEED_UNWRAP
      *
      * Once the initial handshake has completed, we can short circuit
-     * handshake checks with initialHSComplete.
+     * handshake checks with initialHSComplete.  It is set on the
+     * handshake executor and read by the Selector thread, hence volatile.
      */
     private HandshakeStatus initialHSStatus;
-    private boolean initialHSComplete;
+    private volatile boolean initialHSComplete;
 
     /*
      * We have received the shutdown request by our caller, and have
@@ -154,58 +161,82 @@ public class SSLReadWriteSelectorHandler extends PlainReadWriteSelectorHandler {
      */
     private boolean shutdown = false;
 
+    /*
+     * Serializes wrap() and queueing of the result, so TLS records reach
+     * the outbound queue in the order they were sealed.  It is never
+     * held while waiting for the peer to drain the queue, so close()
+     * can't get stuck behind a writer.
+     */
+    private final Object wrapLock = new Object();
+
     /*
      * Constructor for a secure ChannelIO variant.
+     * <P>
+     * The handshake is not started here, it is driven by handleRead()
+     * as the peer's data arrives.
      */
     public SSLReadWriteSelectorHandler(SocketChannel sc, SelectionKey selectionKey,
                                        SSLContext sslContext) throws IOException {
-        super(sc);
+        this(sc, selectionKey, sslContext, DEFAULT_WRITE_HIGH_WATER_MARK, DEFAULT_BYTE_BUFFER_POOL, new SSLHandshakeMetrics());
+    }
+
+    public SSLReadWriteSelectorHandler(SocketChannel sc, SelectionKey selectionKey,
+                                       SSLContext sslContext, int writeHighWaterMark,
+                                       ByteBufferPool byteBufferPool, SSLHandshakeMetrics handshakeMetrics) throws IOException {
+        super(sc, selectionKey, writeHighWaterMark, byteBufferPool);
+        this.handshakeMetrics = handshakeMetrics;
+        this.handshakeStartTime = System.nanoTime();
+        this.handshakeStartMillis = System.currentTimeMillis();
 
         sslEngine = sslContext.createSSLEngine();
         sslEngine.setUseClientMode(false);
         initialHSStatus = HandshakeStatus.NEED_UNWRAP;
         initialHSComplete = false;
 
-        int netBBSize = sslEngine.getSession().getPacketBufferSize();
-        inNetBB = ByteBuffer.allocate(netBBSize);
-        outNetBB = ByteBuffer.allocate(netBBSize);
-        outNetBB.position(0);
-        outNetBB.limit(0);
+        netBBSize = sslEngine.getSession().getPacketBufferSize();
+        inNetBB = byteBufferPool.acquire(netBBSize);
 
-        int appBBSize = sslEngine.getSession().getApplicationBufferSize();
-        requestBB = ByteBuffer.allocate(appBBSize);
-
-        while (!doHandshake(selectionKey)) ;
+        appBBSize = sslEngine.getSession().getApplicationBufferSize();
+        requestBB = byteBufferPool.acquire(appBBSize);
     }
 
     /*
-     * Writes bb to the SocketChannel.
-     * <P>
-     * Returns true when the ByteBuffer has no remaining data.
+     * The handshake is over (or failed), give back everything except
+     * an inNetBB that already holds application data.
      */
-    private boolean tryFlush(ByteBuffer bb) throws IOException {
-        sc.write(bb);
-        return !bb.hasRemaining();
+    private void releaseHandshakeBuffers() {
+        byteBufferPool.release(requestBB);
+        requestBB = null;
+        releaseInNetBBIfEmpty();
+    }
+
+    private void releaseInNetBBIfEmpty() {
+        if (inNetBB != null && inNetBB.position() == 0) {
+            byteBufferPool.release(inNetBB);
+            inNetBB = null;
+        }
+    }
+
+    public boolean isHandshakeComplete() {
+        return initialHSComplete;
     }
 
     /*
      * Perform any handshaking processing.
      * <P>
-     * If a SelectionKey is passed, register for selectable
-     * operations.
-     * <P>
-     * In the blocking case, our caller will keep calling us until
-     * we finish the handshake.  Our reads/writes will block as expected.
-     * <P>
-     * In the non-blocking case, we just received the selection notification
-     * that this channel is ready for whatever the operation is, so give
-     * it a try.
+     * We just received the selection notification that this channel
+     * is readable.  Everything that can be done with the data at hand
+     * is done: handshake data for the peer goes to the outbound queue
+     * (flushed by the Selector on OP_WRITE), and delegated tasks are
+     * run in the current Thread.  The caller (HttpDecodeRunnable) runs
+     * us on the handshake executor, so none of this blocks the
+     * Selector.
      * <P>
      * return:
      *		true when handshake is done.
-     *		false while handshake is in progress
+     *		false when we need more data from the peer
      */
-    boolean doHandshake(SelectionKey sk) throws IOException {
+    private synchronized boolean doHandshake() throws IOException {
 
         SSLEngineResult result;
 
@@ -213,52 +244,19 @@ public class SSLReadWriteSelectorHandler extends PlainReadWriteSelectorHandler {
             return true;
         }
 
-	/*
-     * Flush out the outgoing buffer, if there's anything left in
-	 * it.
-	 */
-        if (outNetBB.hasRemaining()) {
-
-            if (!tryFlush(outNetBB)) {
-                return false;
-            }
-
-            // See if we need to switch from write to read mode.
+        if (sc.read(inNetBB) == -1) {
+            sslEngine.closeInbound();
+            throw new EOFException();
+        }
 
+        while (true) {
             switch (initialHSStatus) {
 
-	    /*
-         * Is this the last buffer?
-	     */
-                case FINISHED:
-                    initialHSComplete = true;
-                    // Fall-through to reregister need for a Read.
-
                 case NEED_UNWRAP:
-                    if (sk != null) {
-                        sk.interestOps(SelectionKey.OP_READ);
-                    }
-                    break;
-            }
-
-            return initialHSComplete;
-        }
-
-
-        switch (initialHSStatus) {
-
-            case NEED_UNWRAP:
-                if (sc.read(inNetBB) == -1) {
-                    sslEngine.closeInbound();
-                    return initialHSComplete;
-                }
-
-                needIO:
-                while (initialHSStatus == HandshakeStatus.NEED_UNWRAP) {
-        /*
-         * Don't need to resize requestBB, since no app data should
-		 * be generated here.
-		 */
+                    /*
+                     * Don't need to resize requestBB, since no app data should
+                     * be generated here.
+                     */
                     inNetBB.flip();
                     result = sslEngine.unwrap(inNetBB, requestBB);
                     inNetBB.compact();
@@ -268,81 +266,48 @@ public class SSLReadWriteSelectorHandler extends PlainReadWriteSelectorHandler {
                     switch (result.getStatus()) {
 
                         case OK:
-                            switch (initialHSStatus) {
-                                case NOT_HANDSHAKING:
-                                    throw new IOException(
-                                            "Not handshaking during initial handshake");
-
-                                case NEED_TASK:
-                                    initialHSStatus = doTasks();
-                                    break;
-
-                                case FINISHED:
-                                    initialHSComplete = true;
-                                    break needIO;
-                            }
-
                             break;
 
                         case BUFFER_UNDERFLOW:
-            /*
-             * Need to go reread the Channel for more data.
-		     */
-                            if (sk != null) {
-                                sk.interestOps(SelectionKey.OP_READ);
-                            }
-                            break needIO;
+                            /*
+                             * Need to go reread the Channel for more data.
+                             */
+                            return false;
 
                         default: // BUFFER_OVERFLOW/CLOSED:
                             throw new IOException("Received" + result.getStatus() +
                                     "during initial handshaking");
                     }
-                }  // "needIO" block.
-
-	    /*
-         * Just transitioned from read to write.
-	     */
-                if (initialHSStatus != HandshakeStatus.NEED_WRAP) {
                     break;
-                }
-
-                // Fall through and fill the write buffers.
-
-            case NEED_WRAP:
-        /*
-         * The flush above guarantees the out buffer to be empty
-	     */
-                outNetBB.clear();
-                result = sslEngine.wrap(hsBB, outNetBB);
-                outNetBB.flip();
-
-                initialHSStatus = result.getHandshakeStatus();
-
-                switch (result.getStatus()) {
-                    case OK:
 
-                        if (initialHSStatus == HandshakeStatus.NEED_TASK) {
-                            initialHSStatus = doTasks();
-                        }
-
-                        if (sk != null) {
-                            sk.interestOps(SelectionKey.OP_WRITE);
-                        }
+                case NEED_WRAP:
+                    super.handleWrite(wrap(new ByteBuffer[]{hsBB}));
+                    initialHSStatus = sslEngine.getHandshakeStatus();
+                    break;
 
-                        break;
+                case NEED_TASK:
+                    initialHSStatus = doTasks();
+                    break;
 
-                    default: // BUFFER_OVERFLOW/BUFFER_UNDERFLOW/CLOSED:
-                        throw new IOException("Received" + result.getStatus() +
-                                "during initial handshaking");
-                }
-                break;
+                case FINISHED:
+                case NOT_HANDSHAKING:
+                    initialHSComplete = true;
+                    handshakeMetrics.handshakeFinished(System.nanoTime() - handshakeStartTime, isResumed());
+                    return true;
 
-            default: // NOT_HANDSHAKING/NEED_TASK/FINISHED
-                throw new RuntimeException("Invalid Handshaking State" +
-                        initialHSStatus);
-        } // switch
+                default:
+                    throw new RuntimeException("Invalid Handshaking State" +
+                            initialHSStatus);
+            }
+        }
+    }
 
-        return initialHSComplete;
+    /*
+     * A resumed session was created by an earlier handshake, a full
+     * handshake creates a new one.
+     */
+    private boolean isResumed() {
+        return sslEngine.getSession().getCreationTime() < handshakeStartMillis;
     }
 
     /*
@@ -352,10 +317,6 @@ public class SSLReadWriteSelectorHandler extends PlainReadWriteSelectorHandler {
 
         Runnable runnable;
 
-	/*
-     * We could run this in a separate thread, but
-	 * do in the current for now.
-	 */
         while ((runnable = sslEngine.getDelegatedTask()) != null) {
             runnable.run();
         }
@@ -378,69 +339,97 @@ public class SSLReadWriteSelectorHandler extends PlainReadWriteSelectorHandler {
             throw new IllegalStateException();
         }
 
-        int pos = requestBB.position();
-
-        if (sc.read(inNetBB) == -1) {
-            sslEngine.closeInbound();  // probably throws exception
-            throw new EOFException();
+        if (inNetBB == null) {
+            inNetBB = byteBufferPool.acquire(netBBSize);
         }
+        ByteBuffer appBB = byteBufferPool.acquire(appBBSize);
+        ByteArrayOutputStream appData = null;
+        try {
+            if (sc.read(inNetBB) == -1) {
+                sslEngine.closeInbound();  // probably throws exception
+                throw new EOFException();
+            }
 
-        do {
-            resizeRequestBB(inNetBB.remaining());    // guarantees enough room for unwrap
-            inNetBB.flip();
-            result = sslEngine.unwrap(inNetBB, requestBB);
-            inNetBB.compact();
-
-	    /*
-         * Could check here for a renegotation, but we're only
-	     * doing a simple read/write, and won't have enough state
-	     * transitions to do a complete handshake, so ignore that
-	     * possibility.
-	     */
-            switch (result.getStatus()) {
-
-                case BUFFER_UNDERFLOW:
-                case OK:
-                    if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
-                        doTasks();
+            do {
+                /*
+                 * Guarantee enough room for unwrap, anything already
+                 * unwrapped is moved out of the pooled buffer.
+                 */
+                if (appBB.remaining() < appBBSize) {
+                    if (appData == null) {
+                        appData = new ByteArrayOutputStream();
                     }
-                    break;
+                    appBB.flip();
+                    byte[] bytes = new byte[appBB.remaining()];
+                    appBB.get(bytes);
+                    appData.write(bytes);
+                    appBB.clear();
+                }
+                inNetBB.flip();
+                result = sslEngine.unwrap(inNetBB, appBB);
+                inNetBB.compact();
+
+                /*
+                 * Could check here for a renegotation, but we're only
+                 * doing a simple read/write, and won't have enough state
+                 * transitions to do a complete handshake, so ignore that
+                 * possibility.
+                 */
+                switch (result.getStatus()) {
 
-                default:
-                    throw new IOException("sslEngine error during data read: " +
-                            result.getStatus());
+                    case BUFFER_UNDERFLOW:
+                    case OK:
+                        if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+                            doTasks();
+                        }
+                        break;
+
+                    default:
+                        throw new IOException("sslEngine error during data read: " +
+                                result.getStatus());
+                }
+            } while ((inNetBB.position() != 0) &&
+                    result.getStatus() != Status.BUFFER_UNDERFLOW);
+
+            appBB.flip();
+            if (appData == null) {
+                //一次解密的数据都在借用的 buffer 中，直接交出，由调用方归还
+                ByteBuffer byteBuffer = appBB;
+                appBB = null;
+                return byteBuffer;
             }
-        } while ((inNetBB.position() != 0) &&
-                result.getStatus() != Status.BUFFER_UNDERFLOW);
-        int readLength = requestBB.position() - pos;
-        ByteBuffer byteBuffer = ByteBuffer.allocate(readLength);
-        byteBuffer.put(BytesUtil.subBytes(requestBB.array(), pos, readLength));
-        return byteBuffer;
+            int readLength = appBB.remaining() + appData.size();
+            ByteBuffer byteBuffer = ByteBuffer.allocate(readLength);
+            byteBuffer.put(appData.toByteArray());
+            byteBuffer.put(appBB);
+            byteBuffer.flip();
+            return byteBuffer;
+        } finally {
+            if (appBB != null) {
+                byteBufferPool.release(appBB);
+            }
+            releaseInNetBBIfEmpty();
+        }
     }
 
     /*
-     * Try to flush out any existing outbound data, then try to wrap
-     * anything new contained in the src buffer.
+     * Wrap as much of srcs as fits in one TLS record.
      * <P>
-     * Return the number of bytes actually consumed from the buffer,
-     * but the data may actually be still sitting in the output buffer,
-     * waiting to be flushed.
+     * Returns a copy of the encrypted data, because the pooled buffer
+     * is given back right away and the result may sit in the outbound
+     * queue until the selector flushes it.
      */
-    private int doWrite(ByteBuffer src) throws IOException {
-        int retValue = 0;
-
-        if (outNetBB.hasRemaining() && !tryFlush(outNetBB)) {
-            return retValue;
+    private ByteBuffer wrap(ByteBuffer[] srcs) throws IOException {
+        ByteBuffer outNetBB = byteBufferPool.acquire(netBBSize);
+        try {
+            return wrap(srcs, outNetBB);
+        } finally {
+            byteBufferPool.release(outNetBB);
         }
+    }
 
-	/*
-     * The data buffer is empty, we can reuse the entire buffer.
-	 */
-        outNetBB.clear();
-
-        SSLEngineResult result = sslEngine.wrap(src, outNetBB);
-        retValue = result.bytesConsumed();
-
+    private ByteBuffer wrap(ByteBuffer[] srcs, ByteBuffer outNetBB) throws IOException {
+        SSLEngineResult result = sslEngine.wrap(srcs, outNetBB);
         outNetBB.flip();
 
         switch (result.getStatus()) {
@@ -451,110 +440,124 @@ public class SSLReadWriteSelectorHandler extends PlainReadWriteSelectorHandler {
                 }
                 break;
 
+            case CLOSED:
+                if (shutdown) {
+                    break;
+                }
+
             default:
                 throw new IOException("sslEngine error during data write: " +
                         result.getStatus());
         }
 
-	/*
-     * Try to flush the data, regardless of whether or not
-	 * it's been selected.  Odds of a write buffer being full
-	 * is less than a read buffer being empty.
-	 */
-        tryFlush(src);
-        if (outNetBB.hasRemaining()) {
-            tryFlush(outNetBB);
-        }
-
-        return retValue;
+        ByteBuffer netBB = ByteBuffer.allocate(outNetBB.remaining());
+        netBB.put(outNetBB);
+        netBB.flip();
+        return netBB;
     }
 
     /*
-     * Flush any remaining data.
+     * Close out the SSLEngine, then queue our outgoing close_notify
+     * message.
      * <P>
-     * Return true when the fileChannelBB and outNetBB are empty.
+     * By RFC 2616, we can "fire and forget" our close_notify
+     * message, so that's what we'll do here.  Called with wrapLock
+     * held.
      */
-    boolean dataFlush() throws IOException {
-        boolean fileFlushed = true;
-
-        if ((fileChannelBB != null) && fileChannelBB.hasRemaining()) {
-            doWrite(fileChannelBB);
-            fileFlushed = !fileChannelBB.hasRemaining();
-        } else if (outNetBB.hasRemaining()) {
-            tryFlush(outNetBB);
+    private void shutdown() throws IOException {
+        shutdown = true;
+        sslEngine.closeOutbound();
+        ByteBuffer netBB = wrap(new ByteBuffer[]{hsBB});
+        if (!sslEngine.isOutboundDone()) {
+            throw new SSLException("Improper close state");
         }
+        enqueue(new ByteBuffer[]{netBB});
+    }
 
-        return (fileFlushed && !outNetBB.hasRemaining());
+    @Override
+    public void handleWrite(ByteBuffer byteBuffer) throws IOException {
+        handleWrite(new ByteBuffer[]{byteBuffer});
     }
 
     /*
-     * Begin the shutdown process.
-     * <P>
-     * Close out the SSLEngine if not already done so, then
-     * wrap our outgoing close_notify message and try to send it on.
-     * <P>
-     * Return true when we're done passing the shutdown messsages.
+     * One TLS record per round: wrap and queue it under wrapLock, then
+     * wait for the high water mark without holding the lock.
      */
-    boolean shutdown() throws IOException {
-
-        if (!shutdown) {
-            sslEngine.closeOutbound();
-            shutdown = true;
-        }
-
-        if (outNetBB.hasRemaining() && tryFlush(outNetBB)) {
-            return false;
-        }
-
-	/*
-     * By RFC 2616, we can "fire and forget" our close_notify
-	 * message, so that's what we'll do here.
-	 */
-        outNetBB.clear();
-        SSLEngineResult result = sslEngine.wrap(hsBB, outNetBB);
-        if (result.getStatus() != Status.CLOSED) {
-            throw new SSLException("Improper close state");
-        }
-        outNetBB.flip();
-
-	/*
-     * We won't wait for a select here, but if this doesn't work,
-	 * we'll cycle back through on the next select.
-	 */
-        if (outNetBB.hasRemaining()) {
-            tryFlush(outNetBB);
+    @Override
+    public void handleWrite(ByteBuffer[] byteBuffers) throws IOException {
+        while (true) {
+            synchronized (wrapLock) {
+                if (!sc.isOpen() || shutdown) {
+                    return;
+                }
+                ByteBuffer netBB = wrap(byteBuffers);
+                if (!netBB.hasRemaining()) {
+                    return;
+                }
+                enqueue(new ByteBuffer[]{netBB});
+            }
+            awaitWritable();
         }
-
-        return (!outNetBB.hasRemaining() &&
-                (result.getHandshakeStatus() != HandshakeStatus.NEED_WRAP));
     }
 
+    /*
+     * The file data has to go through the SSLEngine, so transferTo
+     * can't be used here.  Read it in chunks instead; every chunk is a
+     * new buffer because it may sit in the outbound queue.
+     */
     @Override
-    public void handleWrite(ByteBuffer byteBuffer) throws IOException {
-        while (byteBuffer.hasRemaining() && sc.isOpen()) {
-            int len = doWrite(byteBuffer);
+    public void handleWrite(FileChannel fileChannel, long position, long count) throws IOException {
+        while (count > 0 && sc.isOpen()) {
+            ByteBuffer byteBuffer = ByteBuffer.allocate((int) Math.min(count, FILE_CHUNK_SIZE));
+            int len = fileChannel.read(byteBuffer, position);
             if (len < 0) {
                 throw new EOFException();
             }
+            byteBuffer.flip();
+            handleWrite(byteBuffer);
+            position += len;
+            count -= len;
         }
     }
 
     @Override
     public ByteBuffer handleRead() throws IOException {
+        if (!initialHSComplete) {
+            boolean complete;
+            try {
+                complete = doHandshake();
+            } catch (IOException | RuntimeException e) {
+                handshakeMetrics.handshakeFailed();
+                releaseHandshakeBuffers();
+                throw e;
+            }
+            if (!complete) {
+                return ByteBuffer.allocate(0);
+            }
+            releaseHandshakeBuffers();
+            //握手数据后面可能已经跟着请求的数据了
+            if (inNetBB == null) {
+                return ByteBuffer.allocate(0);
+            }
+        }
         return read();
     }
 
+    /*
+     * Queueing close_notify never waits, so this doesn't block on a
+     * writer whose peer has stopped reading.
+     */
     @Override
     public void close() {
-        try {
-            while (!dataFlush()) {
-
+        synchronized (wrapLock) {
+            try {
+                if (!shutdown && sc.isOpen()) {
+                    shutdown();
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "", e);
             }
-            do {
-            } while (!shutdown());
-            super.close();
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "", e);
         }
+        super.close();
     }
 }
@@ -0,0 +1,96 @@
+package com.hibegin.http.server.handler;
+
+import com.hibegin.common.util.LoggerUtil;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 从属于 acceptor 的读写事件循环，每个实例持有自己的 Selector，只处理注册到它上面的连接的读写事件
+ */
+public class SelectorEventLoop implements Runnable {
+
+    private static final Logger LOGGER = LoggerUtil.getLogger(SelectorEventLoop.class);
+
+    private final Selector selector;
+    private final HttpDecodeRunnable httpDecodeRunnable;
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+
+    public SelectorEventLoop(HttpDecodeRunnable httpDecodeRunnable) throws IOException {
+        this.selector = Selector.open();
+        this.httpDecodeRunnable = httpDecodeRunnable;
+    }
+
+    /**
+     * 由 acceptor 线程调用，真正的注册操作在当前事件循环的线程中完成，避免和 select() 相互阻塞
+     */
+    public void register(SocketChannel channel) {
+        pendingChannels.add(channel);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (selector.isOpen()) {
+            try {
+                selector.select();
+                registerPendingChannels();
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    try {
+                        if (key.isValid() && key.isWritable()) {
+                            httpDecodeRunnable.doWrite(key);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            httpDecodeRunnable.doRead((SocketChannel) key.channel(), key);
+                        }
+                    } catch (IOException | CancelledKeyException e) {
+                        //ignore，这里基本都是系统抛出来的异常了，比如连接被异常关闭，SSL握手失败
+                    } catch (Exception e) {
+                        LOGGER.log(Level.SEVERE, "", e);
+                    }
+                }
+            } catch (Throwable e) {
+                LOGGER.log(Level.SEVERE, "", e);
+            }
+        }
+    }
+
+    private void registerPendingChannels() {
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            try {
+                channel.register(selector, SelectionKey.OP_READ);
+            } catch (ClosedChannelException e) {
+                //ignore
+            }
+        }
+    }
+
+    public void close() {
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "close selector error", e);
+        }
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+    }
+}
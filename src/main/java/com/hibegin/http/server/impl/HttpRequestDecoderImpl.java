@@ -1,90 +1,96 @@
 package com.hibegin.http.server.impl;
 
 import com.hibegin.common.util.BytesUtil;
+import com.hibegin.common.util.IOUtil;
 import com.hibegin.common.util.LoggerUtil;
+import com.hibegin.http.HttpHeaders;
 import com.hibegin.http.HttpMethod;
+import com.hibegin.http.io.ChunkedBodyDecoder;
 import com.hibegin.http.server.ApplicationContext;
 import com.hibegin.http.server.api.HttpRequest;
 import com.hibegin.http.server.api.HttpRequestDeCoder;
+import com.hibegin.http.server.api.Interceptor;
 import com.hibegin.http.server.config.ConfigKit;
 import com.hibegin.http.server.config.RequestConfig;
+import com.hibegin.http.server.execption.NotFoundException;
 import com.hibegin.http.server.execption.RequestBodyTooLargeException;
-import com.hibegin.http.server.execption.UnSupportMethodException;
 import com.hibegin.http.server.handler.ReadWriteSelectorHandler;
 import com.hibegin.http.server.util.FileCacheKit;
+import com.hibegin.http.server.web.MethodInterceptor;
 
 import java.io.*;
 import java.net.URLDecoder;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class HttpRequestDecoderImpl implements HttpRequestDeCoder {
 
     private static final String CRLF = "\r\n";
+    private static final byte[] CONTINUE_RESPONSE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes();
     static final String SPLIT = CRLF + CRLF;
     private static final Logger LOGGER = LoggerUtil.getLogger(HttpRequestDecoderImpl.class);
     private final SimpleHttpRequest request;
     private ByteBuffer requestBodyBuffer;
+    private RequestBodyInputStream requestBodyInputStream;
+    private ChunkedBodyDecoder chunkedBodyDecoder;
+    private ByteArrayOutputStream chunkedBody;
+    private OutputStream chunkedBodyOutputStream;
+    private long chunkedBodyLength;
+    private MultipartFormDataParser multipartParser;
+    private long multipartBodyRemaining;
     private boolean headerHandled = false;
-    private byte[] headerBytes = new byte[]{};
+    private final HttpRequestHeaderParser headerParser;
 
     public HttpRequestDecoderImpl(RequestConfig requestConfig, ApplicationContext applicationContext, ReadWriteSelectorHandler handler) {
         this.request = new SimpleHttpRequest(handler, applicationContext, requestConfig);
+        this.headerParser = new HttpRequestHeaderParser(request.header, requestConfig.isRecordRequestBody(), requestConfig.getMaxRequestHeaderSize());
     }
 
     @Override
     public Map.Entry<Boolean, ByteBuffer> doDecode(ByteBuffer byteBuffer) throws Exception {
         Map.Entry<Boolean, ByteBuffer> result;
+        //CONNECT 的请求体已经写入临时文件后，后面收到的数据直接追加到文件中
+        ByteBuffer connectBody = null;
         if (headerHandled && request.getMethod() == HttpMethod.CONNECT) {
-            if (requestBodyBuffer == null) {
-                requestBodyBuffer = byteBuffer;
+            if (request.tmpRequestBodyFile != null) {
+                connectBody = byteBuffer.slice();
+            } else if (requestBodyBuffer == null) {
+                //byteBuffer 解码后会被归还，需要复制
+                requestBodyBuffer = ByteBuffer.wrap(BytesUtil.toBytes(byteBuffer));
             } else {
-                requestBodyBuffer = ByteBuffer.wrap(BytesUtil.mergeBytes(requestBodyBuffer.array(), byteBuffer.array()));
+                requestBodyBuffer = ByteBuffer.wrap(BytesUtil.mergeBytes(requestBodyBuffer.array(), BytesUtil.toBytes(byteBuffer)));
             }
             result = new AbstractMap.SimpleEntry<>(true, ByteBuffer.allocate(0));
         } else {
             // 存在2种情况,提交的数据一次性读取完成,提交的数据一次性读取不完
             boolean flag;
-            if (requestBodyBuffer == null) {
-                headerBytes = BytesUtil.mergeBytes(headerBytes, byteBuffer.array());
-                String fullDataStr = new String(headerBytes);
-                if (fullDataStr.contains(SPLIT)) {
+            if (!headerHandled) {
+                if (headerParser.parse(byteBuffer)) {
                     headerHandled = true;
-                    parseHttpMethod();
-                    String httpHeader = fullDataStr.substring(0, fullDataStr.indexOf(SPLIT));
-                    request.requestHeaderStr = httpHeader;
-                    String headerArr[] = httpHeader.split(CRLF);
-                    // parse HttpHeader
-                    parseHttpProtocolHeader(headerArr);
-                    int headerByteLength = httpHeader.getBytes().length + SPLIT.getBytes().length;
-                    byte[] requestBody;
-                    if (headerBytes.length - headerByteLength > 0) {
-                        requestBody = BytesUtil.subBytes(headerBytes, headerByteLength, headerBytes.length - headerByteLength);
-                    } else {
-                        requestBody = new byte[0];
-                    }
-                    flag = parseHttpRequestBody(requestBody);
-                    //处理完成，清空byte[]
-                    headerBytes = new byte[]{};
-                    if (isNeedEmptyRequestBody()) {
-                        result = new AbstractMap.SimpleEntry<>(flag, ByteBuffer.wrap(requestBody));
-                    } else {
-                        result = new AbstractMap.SimpleEntry<>(flag, ByteBuffer.allocate(0));
-                    }
+                    request.method = headerParser.getMethod();
+                    request.httpVersion = headerParser.getHttpVersion();
+                    request.requestHeaderStr = headerParser.getRawHeader();
+                    parseRequestTarget(headerParser.getRequestTarget());
+                    flag = parseHttpRequestBody(byteBuffer);
+                    result = new AbstractMap.SimpleEntry<>(flag, remainingBytes(byteBuffer));
                 } else {
-                    parseHttpMethod();
                     result = new AbstractMap.SimpleEntry<>(false, ByteBuffer.allocate(0));
                 }
+            } else if (chunkedBodyDecoder != null) {
+                flag = putChunkedBody(byteBuffer);
+                result = new AbstractMap.SimpleEntry<>(flag, remainingBytes(byteBuffer));
+            } else if (multipartParser != null) {
+                flag = putMultipartBody(byteBuffer);
+                result = new AbstractMap.SimpleEntry<>(flag, remainingBytes(byteBuffer));
             } else {
-                requestBodyBuffer.put(byteBuffer.array());
+                putRequestBody(byteBuffer);
                 flag = !requestBodyBuffer.hasRemaining();
                 if (flag) {
                     dealRequestBodyData();
                 }
-                result = new AbstractMap.SimpleEntry<>(flag, ByteBuffer.allocate(0));
+                result = new AbstractMap.SimpleEntry<>(flag, remainingBytes(byteBuffer));
             }
         }
         if (result.getKey()) {
@@ -92,14 +98,21 @@ public class HttpRequestDecoderImpl implements HttpRequestDeCoder {
                 //手动清除引用，避免内存占用
                 requestBodyBuffer = null;
             } else {
-                if (requestBodyBuffer != null && requestBodyBuffer.array().length > 0) {
-                    if (request.tmpRequestBodyFile != null) {
-                        try (FileOutputStream fileOutputStream = new FileOutputStream(request.tmpRequestBodyFile, true)) {
-                            fileOutputStream.write(byteBuffer.array());
+                if (connectBody != null) {
+                    try (FileOutputStream fileOutputStream = new FileOutputStream(request.tmpRequestBodyFile, true)) {
+                        while (connectBody.hasRemaining()) {
+                            fileOutputStream.getChannel().write(connectBody);
                         }
+                    }
+                } else if (requestBodyBuffer != null && requestBodyBuffer.array().length > 0) {
+                    if (requestBodyBuffer.array().length <= request.getRequestConfig().getRequestBodyMemoryThreshold()) {
+                        //较小的请求体直接保存在内存中
+                        request.requestBody = requestBodyBuffer.array();
                     } else {
                         //first record use full request buffer
+                        request.requestBody = null;
                         request.tmpRequestBodyFile = FileCacheKit.generatorRequestTempFile(request.getServerConfig().getPort(), requestBodyBuffer.array());
+                        requestBodyBuffer = null;
                     }
                 }
             }
@@ -107,40 +120,163 @@ public class HttpRequestDecoderImpl implements HttpRequestDeCoder {
         return result;
     }
 
-    private void parseHttpMethod() throws UnSupportMethodException {
-        if (request.method == null) {
-            boolean check = false;
-            String requestLine = new String(headerBytes);
-            for (HttpMethod httpMethod : HttpMethod.values()) {
-                if (requestLine.startsWith(httpMethod.name() + " ")) {
-                    request.method = httpMethod;
-                    check = true;
-                    break;
+    /**
+     * 请求体之后的数据属于下一个请求(pipelining)，留在 byteBuffer 中
+     */
+    private void putRequestBody(ByteBuffer byteBuffer) {
+        if (byteBuffer.remaining() > requestBodyBuffer.remaining()) {
+            ByteBuffer body = byteBuffer.duplicate();
+            body.limit(body.position() + requestBodyBuffer.remaining());
+            requestBodyBuffer.put(body);
+            byteBuffer.position(body.position());
+        } else {
+            requestBodyBuffer.put(byteBuffer);
+        }
+    }
+
+    /**
+     * multipart/form-data 的请求体边接收边解析，不保存在内存中
+     */
+    private boolean putMultipartBody(ByteBuffer byteBuffer) throws IOException {
+        ByteBuffer body = byteBuffer.slice();
+        body.limit((int) Math.min(body.remaining(), multipartBodyRemaining));
+        byteBuffer.position(byteBuffer.position() + body.remaining());
+        multipartBodyRemaining -= body.remaining();
+        multipartParser.parse(body);
+        if (multipartBodyRemaining > 0) {
+            return false;
+        }
+        multipartParser.finish();
+        return true;
+    }
+
+    /**
+     * 解码后的数据先保存在内存中，超过 requestBodyMemoryThreshold 后写入临时文件(request.tmpRequestBodyFile)，
+     * 全部接收完成后再按照 Content-Length 的请求体一样处理，multipart/form-data 直接交给 multipartParser
+     */
+    private boolean putChunkedBody(ByteBuffer byteBuffer) throws IOException {
+        ByteBuffer data;
+        try {
+            while ((data = chunkedBodyDecoder.decode(byteBuffer)) != null) {
+                chunkedBodyLength += data.remaining();
+                if (chunkedBodyLength > request.getRequestConfig().getMaxRequestBodySize()) {
+                    throw new RequestBodyTooLargeException("The chunked request body outside the max upload size " + request.getRequestConfig().getMaxRequestBodySize());
+                }
+                if (multipartParser != null) {
+                    multipartParser.parse(data);
+                } else {
+                    writeChunkedBody(data);
                 }
             }
-            if (!check) {
-                throw new UnSupportMethodException(requestLine);
-            }
+        } catch (IOException | RuntimeException e) {
+            closeChunkedBodyOutputStream();
+            throw e;
+        }
+        if (!chunkedBodyDecoder.isDone()) {
+            return false;
+        }
+        if (multipartParser != null) {
+            multipartParser.finish();
+            return true;
         }
+        if (chunkedBodyOutputStream != null) {
+            closeChunkedBodyOutputStream();
+            dealRequestBodyFile(request.tmpRequestBodyFile);
+            return true;
+        }
+        requestBodyBuffer = ByteBuffer.wrap(chunkedBody.toByteArray());
+        chunkedBody = null;
+        dealRequestBodyData();
+        return true;
+    }
+
+    private void writeChunkedBody(ByteBuffer data) throws IOException {
+        if (!data.hasArray()) {
+            data = ByteBuffer.wrap(BytesUtil.toBytes(data));
+        }
+        if (chunkedBodyOutputStream == null && chunkedBodyLength > request.getRequestConfig().getRequestBodyMemoryThreshold()) {
+            //请求结束时通过 deleteTempUploadFiles 删除，开启 recordRequestBody 时也直接作为记录的请求体
+            request.tmpRequestBodyFile = FileCacheKit.createRequestTempFile(request.getServerConfig().getPort());
+            chunkedBodyOutputStream = new BufferedOutputStream(new FileOutputStream(request.tmpRequestBodyFile));
+            chunkedBody.writeTo(chunkedBodyOutputStream);
+            chunkedBody = null;
+        }
+        if (chunkedBodyOutputStream != null) {
+            chunkedBodyOutputStream.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+            chunkedBody.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+    }
+
+    private void closeChunkedBodyOutputStream() throws IOException {
+        if (chunkedBodyOutputStream != null) {
+            OutputStream outputStream = chunkedBodyOutputStream;
+            chunkedBodyOutputStream = null;
+            outputStream.close();
+        }
+    }
+
+    private static ByteBuffer remainingBytes(ByteBuffer byteBuffer) {
+        byte[] bytes = new byte[byteBuffer.remaining()];
+        byteBuffer.get(bytes);
+        return ByteBuffer.wrap(bytes);
     }
 
-    private boolean parseHttpRequestBody(byte[] requestBodyData) {
+    private boolean parseHttpRequestBody(ByteBuffer requestBodyData) throws IOException {
         boolean flag;
         parseUrlEncodedStrToMap(request.queryStr);
         if (isNeedEmptyRequestBody()) {
             flag = true;
+        } else if (isChunkedRequestBody()) {
+            //同时存在 Content-Length 时以 Transfer-Encoding 为准
+            expectContinue(requestBodyData);
+            chunkedBodyDecoder = new ChunkedBodyDecoder();
+            if (isStreamRequestBody()) {
+                requestBodyInputStream = new RequestBodyInputStream(chunkedBodyDecoder, request.getRequestConfig().getMaxRequestBodySize());
+                requestBodyInputStream.offer(requestBodyData);
+                request.inputStream = requestBodyInputStream;
+                flag = true;
+            } else {
+                multipartParser = newMultipartParser();
+                if (multipartParser == null) {
+                    chunkedBody = new ByteArrayOutputStream();
+                }
+                flag = putChunkedBody(requestBodyData);
+            }
         } else {
-            Object contentLengthObj = request.getHeader("Content-Length");
+            Object contentLengthObj = request.getHeader(HttpHeaders.CONTENT_LENGTH);
             if (contentLengthObj != null) {
-                Integer dateLength = Integer.parseInt(contentLengthObj.toString());
+                long dateLength;
+                try {
+                    dateLength = Long.parseLong(contentLengthObj.toString().trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid Content-Length " + contentLengthObj);
+                }
+                if (dateLength < 0) {
+                    throw new IOException("Invalid Content-Length " + contentLengthObj);
+                }
                 if (dateLength > getRequest().getRequestConfig().getMaxRequestBodySize()) {
                     throw new RequestBodyTooLargeException("The Content-Length outside the max upload size " + ConfigKit.getMaxRequestBodySize());
                 }
-                requestBodyBuffer = ByteBuffer.allocate(dateLength);
-                requestBodyBuffer.put(requestBodyData);
-                flag = !requestBodyBuffer.hasRemaining();
-                if (flag) {
-                    dealRequestBodyData();
+                if (dateLength > 0) {
+                    expectContinue(requestBodyData);
+                }
+                if (isStreamRequestBody()) {
+                    //不等请求体接收完成，剩余的请求体由 HttpDecodeRunnable 继续写入
+                    requestBodyInputStream = new RequestBodyInputStream(dateLength);
+                    requestBodyInputStream.offer(requestBodyData);
+                    request.inputStream = requestBodyInputStream;
+                    flag = true;
+                } else if ((multipartParser = newMultipartParser()) != null) {
+                    multipartBodyRemaining = dateLength;
+                    flag = putMultipartBody(requestBodyData);
+                } else {
+                    requestBodyBuffer = ByteBuffer.allocate((int) dateLength);
+                    putRequestBody(requestBodyData);
+                    flag = !requestBodyBuffer.hasRemaining();
+                    if (flag) {
+                        dealRequestBodyData();
+                    }
                 }
             } else {
                 flag = true;
@@ -149,27 +285,95 @@ public class HttpRequestDecoderImpl implements HttpRequestDeCoder {
         return flag;
     }
 
+    /**
+     * 客户端发送请求体之前等待 100 Continue(Expect: 100-continue)，没有对应的处理时直接返回 404，不需要再接收请求体
+     * <p>
+     * 请求体太大时在这之前已经返回 413 了
+     */
+    private void expectContinue(ByteBuffer requestBodyData) throws IOException {
+        String expect = request.getHeader(HttpHeaders.EXPECT);
+        if (expect == null || !"100-continue".equalsIgnoreCase(expect.trim()) || "HTTP/1.0".equalsIgnoreCase(request.getHttpVersion())) {
+            return;
+        }
+        if (!hasMapping()) {
+            throw new NotFoundException("Not found " + request.getUri());
+        }
+        //已经收到了请求体，说明客户端没有等待
+        if (!requestBodyData.hasRemaining()) {
+            request.getHandler().handleWrite(ByteBuffer.wrap(CONTINUE_RESPONSE));
+        }
+    }
+
+    /**
+     * 只有默认的 MethodInterceptor 时才能提前判断，其他的拦截器可能处理任意的请求
+     */
+    private boolean hasMapping() {
+        List<Interceptor> interceptors = request.getApplicationContext().getInterceptors();
+        if (interceptors == null || interceptors.isEmpty()) {
+            return true;
+        }
+        for (Interceptor interceptor : interceptors) {
+            if (!(interceptor instanceof MethodInterceptor)) {
+                return true;
+            }
+        }
+        for (Interceptor interceptor : interceptors) {
+            if (((MethodInterceptor) interceptor).hasMapping(request)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isChunkedRequestBody() {
+        String transferEncoding = request.getHeader(HttpHeaders.TRANSFER_ENCODING);
+        return transferEncoding != null && transferEncoding.toLowerCase().contains("chunked");
+    }
+
+    private boolean isStreamRequestBody() {
+        return request.getRequestConfig().isStreamRequestBody() && !request.getRequestConfig().isRecordRequestBody();
+    }
+
+    /**
+     * 需要记录完整的请求体时，multipart/form-data 还是先保存在内存中，接收完成后再解析
+     */
+    private MultipartFormDataParser newMultipartParser() {
+        String boundary = MultipartFormDataParser.getBoundary(request.getHeader(HttpHeaders.CONTENT_TYPE));
+        if (boundary == null || request.getRequestConfig().isRecordRequestBody()) {
+            return null;
+        }
+        return new MultipartFormDataParser(request, boundary);
+    }
+
+    /**
+     * 流式读取请求体时返回，请求体还没有接收完成时需要继续写入
+     */
+    public RequestBodyInputStream getRequestBodyInputStream() {
+        return requestBodyInputStream;
+    }
+
     /**
      * 存在 content-length 认为
      *
      * @return
      */
     private boolean isNeedEmptyRequestBody() {
-        return request.getHeader("Content-Length") == null && (request.method == HttpMethod.GET || request.method == HttpMethod.CONNECT || request.method == HttpMethod.TRACE);
+        return request.getHeader(HttpHeaders.CONTENT_LENGTH) == null && !isChunkedRequestBody() && (request.method == HttpMethod.GET || request.method == HttpMethod.CONNECT || request.method == HttpMethod.TRACE);
     }
 
-    private void parseHttpProtocolHeader(String[] headerArr) throws Exception {
-        String pHeader = headerArr[0];
-        String[] protocolHeaderArr = pHeader.split(" ");
-        String tUrl = request.uri = protocolHeaderArr[1];
+    /**
+     * 处理请求行中的 request-target，请求头中已经有 Host 时以请求头为准
+     */
+    private void parseRequestTarget(String requestTarget) throws Exception {
+        String tUrl = request.uri = requestTarget;
         // just for some proxy-client
         if (tUrl.startsWith(request.getScheme() + "://")) {
             tUrl = tUrl.substring((request.getScheme() + "://").length());
             if (tUrl.contains("/")) {
-                request.header.put("Host", tUrl.substring(0, tUrl.indexOf("/")));
+                putHostIfAbsent(tUrl.substring(0, tUrl.indexOf("/")));
                 tUrl = tUrl.substring(tUrl.indexOf("/"));
             } else {
-                request.header.put("Host", tUrl);
+                putHostIfAbsent(tUrl);
                 tUrl = "/";
             }
         }
@@ -182,22 +386,17 @@ public class HttpRequestDecoderImpl implements HttpRequestDeCoder {
         if (request.uri.contains("/")) {
             request.uri = URLDecoder.decode(request.uri.substring(request.uri.indexOf("/")), request.getRequestConfig().getCharSet());
         } else {
-            request.getHeaderMap().put("Host", request.uri);
+            putHostIfAbsent(request.uri);
             request.uri = "/";
         }
-        // 先得到请求头信息
-        for (int i = 1; i < headerArr.length; i++) {
-            dealRequestHeaderString(headerArr[i]);
-        }
     }
 
-    private void dealRequestHeaderString(String str) {
-        if (str.contains(":")) {
-            request.header.put(str.split(":")[0], str.substring(str.indexOf(":") + 1).trim());
+    private void putHostIfAbsent(String host) {
+        if (!request.header.containsKey(HttpHeaders.HOST)) {
+            request.header.put(HttpHeaders.HOST, host);
         }
     }
 
-
     private void parseUrlEncodedStrToMap(String queryString) {
         if (request.paramMap == null) {
             request.paramMap = new HashMap<>();
@@ -225,32 +424,15 @@ public class HttpRequestDecoderImpl implements HttpRequestDeCoder {
         }
     }
 
-    private void dealRequestBodyData() {
-        if (request.getHeader("Content-Type") != null) {
-            String contentType = request.getHeader("Content-Type").split(";")[0];
-            //FIXME 不支持多文件上传，不支持这里有其他属性字段
+    private void dealRequestBodyData() throws IOException {
+        if (request.getHeader(HttpHeaders.CONTENT_TYPE) != null) {
+            String contentType = request.getHeader(HttpHeaders.CONTENT_TYPE).split(";")[0];
             if ("multipart/form-data".equals(contentType)) {
-                StringBuilder sb = new StringBuilder();
-                try (BufferedReader bin = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(requestBodyBuffer.array())))) {
-                    String headerStr;
-                    while ((headerStr = bin.readLine()) != null && !"".equals(headerStr)) {
-                        sb.append(headerStr).append(CRLF);
-                        dealRequestHeaderString(headerStr);
-                    }
-                } catch (IOException e) {
-                    LOGGER.log(Level.SEVERE, "", e);
-                }
-                String contentDisposition = request.getHeader("Content-Disposition");
-                if (contentDisposition != null) {
-                    String inputName = contentDisposition.split(";")[1].split("=")[1].replace("\"", "");
-                    int length1 = sb.toString().split(CRLF)[0].getBytes().length + CRLF.getBytes().length;
-                    int length2 = sb.toString().getBytes().length + 2;
-                    int dataLength = requestBodyBuffer.array().length - length1 - length2 - SPLIT.getBytes().length;
-                    File file = FileCacheKit.generatorRequestTempFile(request.getServerConfig().getPort(), BytesUtil.subBytes(requestBodyBuffer.array(), length2, dataLength));
-                    if (request.files == null) {
-                        request.files = new HashMap<>();
-                    }
-                    request.files.put(inputName, file);
+                String boundary = MultipartFormDataParser.getBoundary(request.getHeader(HttpHeaders.CONTENT_TYPE));
+                if (boundary != null) {
+                    MultipartFormDataParser multipartFormDataParser = new MultipartFormDataParser(request, boundary);
+                    multipartFormDataParser.parse(ByteBuffer.wrap(requestBodyBuffer.array()));
+                    multipartFormDataParser.finish();
                 }
             } else if ("application/x-www-form-urlencoded".equals(contentType)) {
                 parseUrlEncodedStrToMap(new String(requestBodyBuffer.array()));
@@ -260,6 +442,31 @@ public class HttpRequestDecoderImpl implements HttpRequestDeCoder {
         }
     }
 
+    /**
+     * 和 dealRequestBodyData 一样，请求体保存在文件中，multipart/form-data 分段读取后交给解析器
+     */
+    private void dealRequestBodyFile(File file) throws IOException {
+        String contentType = request.getHeader(HttpHeaders.CONTENT_TYPE) != null ? request.getHeader(HttpHeaders.CONTENT_TYPE).split(";")[0] : null;
+        if ("multipart/form-data".equals(contentType)) {
+            String boundary = MultipartFormDataParser.getBoundary(request.getHeader(HttpHeaders.CONTENT_TYPE));
+            if (boundary != null) {
+                MultipartFormDataParser multipartFormDataParser = new MultipartFormDataParser(request, boundary);
+                try (InputStream inputStream = new FileInputStream(file)) {
+                    byte[] bytes = new byte[8192];
+                    int length;
+                    while ((length = inputStream.read(bytes)) != -1) {
+                        multipartFormDataParser.parse(ByteBuffer.wrap(bytes, 0, length));
+                    }
+                }
+                multipartFormDataParser.finish();
+            }
+        } else if (contentType == null || "application/x-www-form-urlencoded".equals(contentType)) {
+            try (InputStream inputStream = new FileInputStream(file)) {
+                parseUrlEncodedStrToMap(new String(IOUtil.getByteByInputStream(inputStream)));
+            }
+        }
+    }
+
     @Override
     public HttpRequest getRequest() {
         return request;
@@ -0,0 +1,250 @@
+package com.hibegin.http.server.impl;
+
+import com.hibegin.http.HttpHeaders;
+import com.hibegin.http.HttpMethod;
+import com.hibegin.http.server.config.ConfigKit;
+import com.hibegin.http.server.execption.RequestHeaderTooLargeException;
+import com.hibegin.http.server.execption.UnSupportMethodException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 按字节解析 HTTP/1.1 的请求行和请求头，数据可以分多次传入，每个字节只扫描一次
+ * <p>
+ * 解析完成后传入的 ByteBuffer 的 position 指向请求体的第一个字节。请求行和请求头的总长度超过 maxHeaderSize，
+ * 或者请求头超过 MAX_HEADER_COUNT 个时抛出 RequestHeaderTooLargeException，避免一直不结束的请求头占用内存
+ */
+public class HttpRequestHeaderParser {
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte SP = ' ';
+    private static final byte HT = '\t';
+    private static final byte COLON = ':';
+    private static final HttpMethod[] HTTP_METHODS = HttpMethod.values();
+    private static final int MAX_METHOD_LENGTH = maxMethodLength();
+    private static final int MAX_HEADER_COUNT = 100;
+
+    private enum State {
+        METHOD, REQUEST_TARGET, VERSION, HEADER_LINE_START, HEADER_NAME, HEADER_VALUE, DONE
+    }
+
+    private final HttpHeaders headers;
+    /**
+     * 需要原始的请求头时才记录
+     */
+    private final ByteArrayOutputStream rawHeader;
+    private final int maxHeaderSize;
+    private int headerSize;
+    private int headerCount;
+    private State state = State.METHOD;
+    private byte[] token = new byte[64];
+    private int tokenLength;
+    private HttpMethod method;
+    private String requestTarget;
+    private String httpVersion = "";
+    private String headerName;
+
+    /**
+     * @param maxHeaderSize 小于等于 0 时使用 ConfigKit.getMaxRequestHeaderSize()
+     */
+    public HttpRequestHeaderParser(HttpHeaders headers, boolean recordRawHeader, int maxHeaderSize) {
+        this.headers = headers;
+        this.rawHeader = recordRawHeader ? new ByteArrayOutputStream() : null;
+        this.maxHeaderSize = maxHeaderSize > 0 ? maxHeaderSize : ConfigKit.getMaxRequestHeaderSize();
+    }
+
+    /**
+     * 从上次解析结束的位置继续解析
+     *
+     * @return 请求头是否已经解析完成
+     */
+    public boolean parse(ByteBuffer byteBuffer) throws UnSupportMethodException {
+        int start = byteBuffer.position();
+        try {
+            while (state != State.DONE && byteBuffer.hasRemaining()) {
+                byte b = byteBuffer.get();
+                if (++headerSize > maxHeaderSize) {
+                    throw new RequestHeaderTooLargeException("The request header outside the max size " + maxHeaderSize);
+                }
+                switch (state) {
+                    case METHOD:
+                        parseMethod(b);
+                        break;
+                    case REQUEST_TARGET:
+                        if (b == SP || b == CR || b == LF) {
+                            if (tokenLength > 0) {
+                                requestTarget = takeToken();
+                                state = b == LF ? State.HEADER_LINE_START : State.VERSION;
+                            }
+                        } else {
+                            append(b);
+                        }
+                        break;
+                    case VERSION:
+                        if (b == LF) {
+                            httpVersion = takeToken();
+                            state = State.HEADER_LINE_START;
+                        } else if (b != CR) {
+                            append(b);
+                        }
+                        break;
+                    case HEADER_LINE_START:
+                        if (b == LF) {
+                            state = State.DONE;
+                        } else if (b != CR) {
+                            state = State.HEADER_NAME;
+                            parseHeaderName(b);
+                        }
+                        break;
+                    case HEADER_NAME:
+                        parseHeaderName(b);
+                        break;
+                    case HEADER_VALUE:
+                        if (b == LF) {
+                            if (++headerCount > MAX_HEADER_COUNT) {
+                                throw new RequestHeaderTooLargeException("The request header count outside the max count " + MAX_HEADER_COUNT);
+                            }
+                            //值只复制字节，读取时才转换成 String
+                            headers.add(headerName, token, 0, trimmedLength());
+                            tokenLength = 0;
+                            state = State.HEADER_LINE_START;
+                        } else if (b != CR && (tokenLength > 0 || (b != SP && b != HT))) {
+                            append(b);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            if (rawHeader != null) {
+                ByteBuffer consumed = byteBuffer.duplicate();
+                consumed.limit(byteBuffer.position());
+                consumed.position(start);
+                byte[] bytes = new byte[consumed.remaining()];
+                consumed.get(bytes);
+                rawHeader.write(bytes, 0, bytes.length);
+            }
+        }
+        return state == State.DONE;
+    }
+
+    private void parseMethod(byte b) throws UnSupportMethodException {
+        if (b == SP) {
+            method = matchMethod();
+            if (method == null) {
+                throw new UnSupportMethodException(new String(token, 0, tokenLength));
+            }
+            tokenLength = 0;
+            state = State.REQUEST_TARGET;
+        } else if (tokenLength == 0 && (b == CR || b == LF)) {
+            //请求行之前的空行
+        } else if (b < 'A' || b > 'Z' || tokenLength >= MAX_METHOD_LENGTH) {
+            append(b);
+            throw new UnSupportMethodException(new String(token, 0, tokenLength));
+        } else {
+            append(b);
+        }
+    }
+
+    private void parseHeaderName(byte b) {
+        if (b == COLON) {
+            headerName = HttpHeaders.toHeaderName(token, 0, trimmedLength());
+            tokenLength = 0;
+            state = State.HEADER_VALUE;
+        } else if (b == LF) {
+            //没有 ":" 的行直接忽略
+            tokenLength = 0;
+            state = State.HEADER_LINE_START;
+        } else if (b != CR) {
+            append(b);
+        }
+    }
+
+    private HttpMethod matchMethod() {
+        for (HttpMethod httpMethod : HTTP_METHODS) {
+            String name = httpMethod.name();
+            if (name.length() == tokenLength) {
+                int i = 0;
+                while (i < tokenLength && name.charAt(i) == token[i]) {
+                    i++;
+                }
+                if (i == tokenLength) {
+                    return httpMethod;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void append(byte b) {
+        if (tokenLength == token.length) {
+            byte[] newToken = new byte[token.length << 1];
+            System.arraycopy(token, 0, newToken, 0, tokenLength);
+            token = newToken;
+        }
+        token[tokenLength++] = b;
+    }
+
+    /**
+     * 去掉结尾的空白字符后的长度
+     */
+    private int trimmedLength() {
+        int length = tokenLength;
+        while (length > 0 && (token[length - 1] == SP || token[length - 1] == HT)) {
+            length--;
+        }
+        return length;
+    }
+
+    private String takeToken() {
+        String str = new String(token, 0, trimmedLength());
+        tokenLength = 0;
+        return str;
+    }
+
+    private static int maxMethodLength() {
+        int max = 0;
+        for (HttpMethod httpMethod : HTTP_METHODS) {
+            max = Math.max(max, httpMethod.name().length());
+        }
+        return max;
+    }
+
+    public boolean isDone() {
+        return state == State.DONE;
+    }
+
+    public HttpMethod getMethod() {
+        return method;
+    }
+
+    public String getRequestTarget() {
+        return requestTarget;
+    }
+
+    public String getHttpVersion() {
+        return httpVersion;
+    }
+
+    /**
+     * 不包含结尾的空行，没有开启记录时返回 null
+     */
+    public String getRawHeader() {
+        if (rawHeader == null) {
+            return null;
+        }
+        byte[] bytes = rawHeader.toByteArray();
+        int start = 0;
+        int end = bytes.length;
+        while (start < end && (bytes[start] == CR || bytes[start] == LF)) {
+            start++;
+        }
+        while (end > start && (bytes[end - 1] == CR || bytes[end - 1] == LF)) {
+            end--;
+        }
+        return new String(bytes, start, end - start);
+    }
+}
@@ -0,0 +1,175 @@
+package com.hibegin.http.server.impl;
+
+import com.hibegin.http.HttpHeaders;
+import com.hibegin.http.server.util.ServerInfo;
+import com.hibegin.http.server.util.StatusCodeUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * 把响应头直接编码到字节数组中，不再经过 StringBuilder 和 String.getBytes()
+ * <p>
+ * 状态行、Server 和常用的响应头名称事先编码好，Date 每秒只生成一次
+ */
+public class HttpResponseHeaderEncoder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[][] STATUS_LINES = new byte[600][];
+    private static final Map<String, byte[]> HEADER_NAMES = new HashMap<>();
+    private static final byte[] SERVER_LINE = ("Server: " + ServerInfo.getName() + "/" + ServerInfo.getVersion() + "\r\n").getBytes(UTF_8);
+    private static final byte[] SET_COOKIE = "Set-Cookie: ".getBytes(UTF_8);
+    private static volatile CachedDate cachedDate;
+
+    static {
+        for (int i = 100; i < STATUS_LINES.length; i++) {
+            if (StatusCodeUtil.getStatusCodeDesc(i) != null) {
+                STATUS_LINES[i] = newStatusLine(i);
+            }
+        }
+        for (String name : new String[]{HttpHeaders.CACHE_CONTROL, HttpHeaders.CONNECTION, HttpHeaders.CONTENT_DISPOSITION,
+                HttpHeaders.CONTENT_ENCODING, HttpHeaders.CONTENT_LENGTH, HttpHeaders.CONTENT_TYPE, HttpHeaders.TRANSFER_ENCODING,
+                HttpHeaders.UPGRADE, "Location", "Expires", "ETag", "Last-Modified", "Vary"}) {
+            HEADER_NAMES.put(name, (name + ": ").getBytes(UTF_8));
+        }
+    }
+
+    private byte[] bytes;
+    private int length;
+
+    private HttpResponseHeaderEncoder(int capacity) {
+        this.bytes = new byte[capacity];
+    }
+
+    /**
+     * 响应头中没有 Date 和 Server 时自动加上
+     *
+     * @param setCookies Set-Cookie 的值
+     */
+    public static ByteBuffer encode(int statusCode, Map<String, String> header, List<String> setCookies) {
+        byte[] statusLine = getStatusLine(statusCode);
+        byte[] dateLine = header.containsKey("Date") ? null : getDateLine();
+        byte[] serverLine = header.containsKey("Server") ? null : SERVER_LINE;
+        //只有 ASCII 时刚好是需要的长度
+        int capacity = statusLine.length + CRLF.length;
+        if (dateLine != null) {
+            capacity += dateLine.length;
+        }
+        if (serverLine != null) {
+            capacity += serverLine.length;
+        }
+        for (Map.Entry<String, String> entry : header.entrySet()) {
+            capacity += entry.getKey().length() + 2 + String.valueOf(entry.getValue()).length() + CRLF.length;
+        }
+        for (String setCookie : setCookies) {
+            capacity += SET_COOKIE.length + setCookie.length() + CRLF.length;
+        }
+        HttpResponseHeaderEncoder encoder = new HttpResponseHeaderEncoder(capacity);
+        encoder.write(statusLine);
+        if (dateLine != null) {
+            encoder.write(dateLine);
+        }
+        if (serverLine != null) {
+            encoder.write(serverLine);
+        }
+        for (Map.Entry<String, String> entry : header.entrySet()) {
+            byte[] name = HEADER_NAMES.get(entry.getKey());
+            if (name != null) {
+                encoder.write(name);
+            } else {
+                encoder.write(entry.getKey());
+                encoder.write((byte) ':');
+                encoder.write((byte) ' ');
+            }
+            encoder.write(String.valueOf(entry.getValue()));
+            encoder.write(CRLF);
+        }
+        for (String setCookie : setCookies) {
+            encoder.write(SET_COOKIE);
+            encoder.write(setCookie);
+            encoder.write(CRLF);
+        }
+        encoder.write(CRLF);
+        return ByteBuffer.wrap(encoder.bytes, 0, encoder.length);
+    }
+
+    public static byte[] getStatusLine(int statusCode) {
+        if (statusCode >= 0 && statusCode < STATUS_LINES.length && STATUS_LINES[statusCode] != null) {
+            return STATUS_LINES[statusCode];
+        }
+        return newStatusLine(statusCode);
+    }
+
+    private static byte[] newStatusLine(int statusCode) {
+        String desc = StatusCodeUtil.getStatusCodeDesc(statusCode);
+        return ("HTTP/1.1 " + statusCode + " " + (desc != null ? desc : "") + "\r\n").getBytes(UTF_8);
+    }
+
+    /**
+     * RFC 1123 格式的 Date 响应头，同一秒内的响应共用
+     */
+    public static byte[] getDateLine() {
+        long second = System.currentTimeMillis() / 1000;
+        CachedDate date = cachedDate;
+        if (date == null || date.second != second) {
+            //SimpleDateFormat 不是线程安全的，每秒最多创建一次
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            date = new CachedDate(second, ("Date: " + format.format(new Date(second * 1000)) + "\r\n").getBytes(UTF_8));
+            cachedDate = date;
+        }
+        return date.line;
+    }
+
+    private void write(byte b) {
+        ensureCapacity(1);
+        bytes[length++] = b;
+    }
+
+    private void write(byte[] src) {
+        ensureCapacity(src.length);
+        System.arraycopy(src, 0, bytes, length, src.length);
+        length += src.length;
+    }
+
+    /**
+     * ASCII 字符直接写入，遇到其他字符时剩下的部分按 UTF-8 编码
+     */
+    private void write(String str) {
+        ensureCapacity(str.length());
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c >= 0x80) {
+                write(str.substring(i).getBytes(UTF_8));
+                return;
+            }
+            bytes[length++] = (byte) c;
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (length + size > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, length + size));
+        }
+    }
+
+    private static class CachedDate {
+
+        private final long second;
+        private final byte[] line;
+
+        private CachedDate(long second, byte[] line) {
+            this.second = second;
+            this.line = line;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.hibegin.http.server.impl;
+
+import com.hibegin.common.util.LoggerUtil;
+import com.hibegin.http.HttpHeaders;
+import com.hibegin.http.server.util.FileCacheKit;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * multipart/form-data 请求体的增量解析，数据可以分多次传入，每个字节只扫描一次
+ * <p>
+ * 支持任意多个文件和字段，文件边接收边写入临时文件(request.files)，字段放到 paramMap 中，占用的内存和上传文件的大小无关
+ */
+public class MultipartFormDataParser {
+
+    private static final Logger LOGGER = LoggerUtil.getLogger(MultipartFormDataParser.class);
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final int MAX_PART_HEADER_LINE_LENGTH = 8 * 1024;
+
+    private enum State {
+        PREAMBLE, DELIMITER_END, PART_HEADER, PART_BODY, EPILOGUE
+    }
+
+    private final SimpleHttpRequest request;
+    /**
+     * 分隔符 "\r\n--" + boundary
+     */
+    private final byte[] delimiter;
+    /**
+     * KMP 的部分匹配表，failure[i] 为 delimiter 前 i 个字节的最长相同前后缀的长度
+     */
+    private final int[] failure;
+    private State state = State.PREAMBLE;
+    /**
+     * 已经匹配的分隔符的长度，请求体开头的分隔符前面没有 CRLF，所以从 2 开始
+     */
+    private int matched = 2;
+    private boolean dash;
+    private final ByteArrayOutputStream headerLine = new ByteArrayOutputStream();
+    private String partName;
+    private String partFileName;
+    private File partFile;
+    private OutputStream partOutputStream;
+
+    public MultipartFormDataParser(SimpleHttpRequest request, String boundary) {
+        this.request = request;
+        this.delimiter = ("\r\n--" + boundary).getBytes();
+        this.failure = new int[delimiter.length + 1];
+        for (int i = 2, k = 0; i <= delimiter.length; i++) {
+            while (k > 0 && delimiter[i - 1] != delimiter[k]) {
+                k = failure[k];
+            }
+            if (delimiter[i - 1] == delimiter[k]) {
+                k++;
+            }
+            failure[i] = k;
+        }
+    }
+
+    /**
+     * 从 Content-Type 中取出 boundary，不是 multipart/form-data 时返回 null
+     */
+    public static String getBoundary(String contentType) {
+        if (contentType == null || !"multipart/form-data".equalsIgnoreCase(contentType.split(";")[0].trim())) {
+            return null;
+        }
+        String boundary = getParameter(contentType, "boundary");
+        return boundary == null || boundary.isEmpty() ? null : boundary;
+    }
+
+    /**
+     * 解析传入的所有数据
+     */
+    public void parse(ByteBuffer byteBuffer) throws IOException {
+        if (!byteBuffer.hasArray()) {
+            //堆外的 buffer 复制到堆内后再查找分隔符
+            ByteBuffer heapBuffer = ByteBuffer.allocate(byteBuffer.remaining());
+            heapBuffer.put(byteBuffer);
+            heapBuffer.flip();
+            byteBuffer = heapBuffer;
+        }
+        try {
+            while (byteBuffer.hasRemaining() && state != State.EPILOGUE) {
+                switch (state) {
+                    case PREAMBLE:
+                        if (scan(byteBuffer)) {
+                            state = State.DELIMITER_END;
+                        }
+                        break;
+                    case PART_BODY:
+                        if (scan(byteBuffer)) {
+                            endPart();
+                            state = State.DELIMITER_END;
+                        }
+                        break;
+                    case DELIMITER_END:
+                        parseDelimiterEnd(byteBuffer.get());
+                        break;
+                    case PART_HEADER:
+                        parsePartHeader(byteBuffer.get());
+                        break;
+                    default:
+                        break;
+                }
+            }
+            //结束分隔符之后的数据直接忽略
+            byteBuffer.position(byteBuffer.limit());
+        } catch (IOException e) {
+            closePart();
+            throw e;
+        }
+    }
+
+    /**
+     * 请求体接收完成后调用
+     */
+    public void finish() throws IOException {
+        if (state != State.EPILOGUE) {
+            closePart();
+            throw new IOException("Incomplete multipart/form-data request body");
+        }
+    }
+
+    /**
+     * 查找分隔符，分隔符之前的数据写入当前的 part，跨越多次传入的部分匹配的字节暂不写出
+     *
+     * @return 是否找到分隔符，找到时 byteBuffer 的 position 指向分隔符之后
+     */
+    private boolean scan(ByteBuffer byteBuffer) throws IOException {
+        byte[] bytes = byteBuffer.array();
+        int offset = byteBuffer.arrayOffset();
+        int end = offset + byteBuffer.limit();
+        //还没有写出的数据的开始位置，-1 表示没有
+        int dataStart = -1;
+        for (int i = offset + byteBuffer.position(); i < end; i++) {
+            byte b = bytes[i];
+            while (matched > 0 && b != delimiter[matched]) {
+                //匹配失败，之前暂存的分隔符的前面一部分其实是数据
+                int fallback = failure[matched];
+                write(delimiter, 0, matched - fallback);
+                matched = fallback;
+            }
+            if (b == delimiter[matched]) {
+                if (matched == 0 && dataStart >= 0) {
+                    write(bytes, dataStart, i - dataStart);
+                    dataStart = -1;
+                }
+                if (++matched == delimiter.length) {
+                    matched = 0;
+                    byteBuffer.position(i + 1 - offset);
+                    return true;
+                }
+            } else if (dataStart < 0) {
+                dataStart = i;
+            }
+        }
+        if (dataStart >= 0) {
+            write(bytes, dataStart, end - dataStart);
+        }
+        byteBuffer.position(byteBuffer.limit());
+        return false;
+    }
+
+    private void write(byte[] bytes, int offset, int length) throws IOException {
+        if (partOutputStream != null && length > 0) {
+            partOutputStream.write(bytes, offset, length);
+        }
+    }
+
+    /**
+     * 分隔符之后是 "--" 表示请求体结束，否则是下一个 part 的头部
+     */
+    private void parseDelimiterEnd(byte b) {
+        if (b == '-') {
+            if (dash) {
+                state = State.EPILOGUE;
+            }
+            dash = true;
+        } else if (b == LF) {
+            dash = false;
+            partName = null;
+            partFileName = null;
+            headerLine.reset();
+            state = State.PART_HEADER;
+        }
+    }
+
+    private void parsePartHeader(byte b) throws IOException {
+        if (b == LF) {
+            if (headerLine.size() == 0) {
+                startPart();
+                state = State.PART_BODY;
+            } else {
+                parsePartHeaderLine(new String(headerLine.toByteArray(), request.getRequestConfig().getCharSet()));
+                headerLine.reset();
+            }
+        } else if (b != CR) {
+            if (headerLine.size() >= MAX_PART_HEADER_LINE_LENGTH) {
+                throw new IOException("The multipart/form-data part header is too large");
+            }
+            headerLine.write(b);
+        }
+    }
+
+    private void parsePartHeaderLine(String line) {
+        int idx = line.indexOf(':');
+        if (idx != -1 && HttpHeaders.CONTENT_DISPOSITION.equalsIgnoreCase(line.substring(0, idx).trim())) {
+            String contentDisposition = line.substring(idx + 1);
+            partName = getParameter(contentDisposition, "name");
+            partFileName = getParameter(contentDisposition, "filename");
+        }
+    }
+
+    private void startPart() throws IOException {
+        if (partName == null) {
+            //没有 name 的 part 直接忽略
+            return;
+        }
+        if (partFileName != null) {
+            //没有选择文件时 filename 为空
+            if (!partFileName.isEmpty()) {
+                partFile = FileCacheKit.createRequestTempFile(request.getServerConfig().getPort());
+                if (request.files == null) {
+                    request.files = new HashMap<>();
+                }
+                //同名的文件只保留最后一个
+                File oldFile = request.files.put(partName, partFile);
+                if (oldFile != null) {
+                    FileCacheKit.deleteCache(oldFile);
+                }
+                partOutputStream = new BufferedOutputStream(new FileOutputStream(partFile));
+            }
+        } else {
+            partOutputStream = new ByteArrayOutputStream();
+        }
+    }
+
+    private void endPart() throws IOException {
+        if (partOutputStream == null) {
+            return;
+        }
+        OutputStream outputStream = partOutputStream;
+        partOutputStream = null;
+        outputStream.close();
+        if (partFile == null) {
+            String charSet = request.getRequestConfig().getCharSet();
+            String value = new String(((ByteArrayOutputStream) outputStream).toByteArray(), charSet);
+            //和 application/x-www-form-urlencoded 的参数一样，paramMap 中保存编码后的值
+            addParam(partName, URLEncoder.encode(value, charSet));
+        }
+        partFile = null;
+    }
+
+    /**
+     * 出错时关闭当前的 part，已经创建的临时文件在请求结束时删除
+     */
+    private void closePart() {
+        if (partOutputStream != null) {
+            try {
+                partOutputStream.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "close part error", e);
+            }
+            partOutputStream = null;
+        }
+        partFile = null;
+    }
+
+    private void addParam(String key, String value) {
+        if (request.paramMap == null) {
+            request.paramMap = new HashMap<>();
+        }
+        String[] values = request.paramMap.get(key);
+        if (values == null) {
+            values = new String[]{value};
+        } else {
+            values = Arrays.copyOf(values, values.length + 1);
+            values[values.length - 1] = value;
+        }
+        request.paramMap.put(key, values);
+    }
+
+    /**
+     * 取出形如 a=b; name="c" 的字符串中的参数值，会去掉两边的引号
+     */
+    private static String getParameter(String str, String name) {
+        for (String param : str.split(";")) {
+            int idx = param.indexOf('=');
+            if (idx != -1 && name.equalsIgnoreCase(param.substring(0, idx).trim())) {
+                String value = param.substring(idx + 1).trim();
+                if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                return value;
+            }
+        }
+        return null;
+    }
+}
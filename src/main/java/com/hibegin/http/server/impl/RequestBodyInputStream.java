@@ -0,0 +1,315 @@
+package com.hibegin.http.server.impl;
+
+import com.hibegin.common.util.ByteBufferPool;
+import com.hibegin.common.util.BytesUtil;
+import com.hibegin.http.io.ChunkedBodyDecoder;
+import com.hibegin.http.server.execption.RequestBodyTooLargeException;
+import com.hibegin.http.server.handler.PlainReadWriteSelectorHandler;
+import com.hibegin.http.server.handler.ReadWriteSelectorHandler;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 边接收边读取的请求体，解码线程读取到数据后通过 offer 写入，处理请求的线程通过 read 读取
+ * <p>
+ * 缓存的数据超过 maxBufferSize 时暂停这个连接的读事件，被读取到一半以下时再恢复，每个请求占用的内存不会超过 maxBufferSize 太多
+ * <p>
+ * 缓存的数据是读取用的 buffer 的一部分，通过 releaseAfterRead 交给这里的 buffer 在其中的数据被读取完(或者流被关闭)后归还到 byteBufferPool
+ */
+public class RequestBodyInputStream extends InputStream {
+
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 256 * 1024;
+
+    private final long contentLength;
+    private final int maxBufferSize;
+    private final ChunkedBodyDecoder chunkedBodyDecoder;
+    private final long maxBodySize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition readable = lock.newCondition();
+    private final Queue<Segment> buffers = new ArrayDeque<>();
+    /**
+     * 最后加入并且还没有被读取完的一段数据，以及同一个 buffer 中加入的数据的长度
+     */
+    private Segment lastSegment;
+    private int lastSourceBytes;
+    private ByteBufferPool byteBufferPool;
+    private long received;
+    private long bufferedBytes;
+    private ReadWriteSelectorHandler handler;
+    private boolean readPaused;
+    private boolean closed;
+    private IOException failure;
+
+    public RequestBodyInputStream(long contentLength) {
+        this(contentLength, DEFAULT_MAX_BUFFER_SIZE);
+    }
+
+    public RequestBodyInputStream(long contentLength, int maxBufferSize) {
+        this.contentLength = contentLength;
+        this.maxBufferSize = maxBufferSize;
+        this.chunkedBodyDecoder = null;
+        this.maxBodySize = contentLength;
+    }
+
+    /**
+     * Transfer-Encoding: chunked 的请求体，长度事先未知，超过 maxBodySize 时抛出 RequestBodyTooLargeException
+     */
+    public RequestBodyInputStream(ChunkedBodyDecoder chunkedBodyDecoder, long maxBodySize) {
+        this.contentLength = -1;
+        this.maxBufferSize = DEFAULT_MAX_BUFFER_SIZE;
+        this.chunkedBodyDecoder = chunkedBodyDecoder;
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * 只取出属于请求体的部分，之后的数据(下一个请求)留在 byteBuffer 中，不复制数据
+     */
+    public void offer(ByteBuffer byteBuffer) throws IOException {
+        lock.lock();
+        try {
+            if (chunkedBodyDecoder == null) {
+                int length = (int) Math.min(byteBuffer.remaining(), contentLength - received);
+                if (length > 0) {
+                    ByteBuffer body = byteBuffer.slice();
+                    body.limit(length);
+                    byteBuffer.position(byteBuffer.position() + length);
+                    add(body, byteBuffer);
+                }
+            } else {
+                ByteBuffer body;
+                while ((body = chunkedBodyDecoder.decode(byteBuffer)) != null) {
+                    if (received + body.remaining() > maxBodySize) {
+                        throw new RequestBodyTooLargeException("The chunked request body outside the max upload size " + maxBodySize);
+                    }
+                    add(body, byteBuffer);
+                }
+                if (chunkedBodyDecoder.isDone()) {
+                    readable.signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void add(ByteBuffer body, ByteBuffer source) {
+        received += body.remaining();
+        if (!closed) {
+            bufferedBytes += body.remaining();
+            if (lastSegment == null || lastSegment.source != source) {
+                lastSourceBytes = 0;
+            }
+            lastSourceBytes += body.remaining();
+            lastSegment = new Segment(body, source);
+            buffers.add(lastSegment);
+            readable.signalAll();
+            if (bufferedBytes > maxBufferSize) {
+                setReadPaused(true);
+            }
+        }
+    }
+
+    /**
+     * offer 之后调用，byteBuffer 中还有数据在等待读取时，由这里在读取完后归还到 byteBufferPool
+     *
+     * @return false 表示没有持有 byteBuffer 中的数据，需要调用方自己归还
+     */
+    public boolean releaseAfterRead(ByteBuffer byteBuffer, ByteBufferPool byteBufferPool) {
+        lock.lock();
+        try {
+            if (lastSegment == null || lastSegment.source != byteBuffer) {
+                return false;
+            }
+            if (lastSourceBytes < byteBuffer.capacity() / 2) {
+                //只用到了 buffer 的一小部分，复制出来后直接归还，避免少量的数据占用大量的 buffer
+                for (Segment segment : buffers) {
+                    if (segment.source == byteBuffer) {
+                        segment.data = ByteBuffer.wrap(BytesUtil.toBytes(segment.data));
+                        segment.source = null;
+                    }
+                }
+                lastSegment = null;
+                return false;
+            }
+            //同一个 buffer 中的数据是连续加入的，最后一段读取完时前面的也都读取完了
+            lastSegment.pooled = byteBuffer;
+            this.byteBufferPool = byteBufferPool;
+            lastSegment = null;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(Segment segment) {
+        if (segment == lastSegment) {
+            lastSegment = null;
+        }
+        if (segment.pooled != null) {
+            byteBufferPool.release(segment.pooled);
+        }
+    }
+
+    public boolean isComplete() {
+        lock.lock();
+        try {
+            return chunkedBodyDecoder == null ? received >= contentLength : chunkedBodyDecoder.isDone();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 设置后才能暂停和恢复连接的读事件
+     */
+    public void setHandler(ReadWriteSelectorHandler handler) {
+        lock.lock();
+        try {
+            this.handler = handler;
+            if (bufferedBytes > maxBufferSize) {
+                setReadPaused(true);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 连接已经关闭，请求体不会再收到了
+     */
+    public void abort() {
+        fail(new EOFException("Connection closed before the request body was fully received"));
+    }
+
+    /**
+     * 请求体接收失败(格式错误、超过大小限制或者连接关闭)，缓存的数据读取完后 read 会抛出 cause
+     */
+    public void fail(IOException cause) {
+        lock.lock();
+        try {
+            if (failure == null) {
+                failure = cause;
+            }
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void setReadPaused(boolean paused) {
+        if (readPaused != paused && handler instanceof PlainReadWriteSelectorHandler) {
+            readPaused = paused;
+            ((PlainReadWriteSelectorHandler) handler).setReadInterest(!paused);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] bytes = new byte[1];
+        int length = read(bytes, 0, 1);
+        return length == -1 ? -1 : bytes[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        lock.lock();
+        try {
+            while (buffers.isEmpty()) {
+                //连接关闭时会同时关闭这个流，优先抛出失败的原因
+                if (failure != null) {
+                    throw failure;
+                }
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                if (isComplete()) {
+                    return -1;
+                }
+                if (handler != null && !handler.getChannel().isOpen()) {
+                    throw new EOFException("Connection closed before the request body was fully received");
+                }
+                //channel 被直接关闭时不会通知，所以这里需要定时检查
+                readable.await(1, TimeUnit.SECONDS);
+            }
+            int length = 0;
+            while (length < len && !buffers.isEmpty()) {
+                ByteBuffer byteBuffer = buffers.peek().data;
+                int size = Math.min(len - length, byteBuffer.remaining());
+                byteBuffer.get(b, off + length, size);
+                length += size;
+                if (!byteBuffer.hasRemaining()) {
+                    release(buffers.poll());
+                }
+            }
+            bufferedBytes -= length;
+            if (readPaused && bufferedBytes <= maxBufferSize / 2) {
+                setReadPaused(false);
+            }
+            return length;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int available() {
+        lock.lock();
+        try {
+            return (int) Math.min(bufferedBytes, Integer.MAX_VALUE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 没有读取的数据直接丢弃，之后收到的请求体也会被丢弃，连接上的下一个请求可以继续解码
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            Segment segment;
+            while ((segment = buffers.poll()) != null) {
+                release(segment);
+            }
+            bufferedBytes = 0;
+            setReadPaused(false);
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Segment {
+        private ByteBuffer data;
+        /**
+         * data 所在的读取用的 buffer，已经复制出来时为空
+         */
+        private ByteBuffer source;
+        /**
+         * 不为空时这是 pooled 中的最后一段数据，读取完后归还
+         */
+        private ByteBuffer pooled;
+
+        private Segment(ByteBuffer data, ByteBuffer source) {
+            this.data = data;
+            this.source = source;
+        }
+    }
+}
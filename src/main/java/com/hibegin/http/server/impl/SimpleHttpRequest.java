@@ -1,8 +1,7 @@
 package com.hibegin.http.server.impl;
 
-import com.hibegin.common.util.BytesUtil;
-import com.hibegin.common.util.IOUtil;
 import com.hibegin.common.util.LoggerUtil;
+import com.hibegin.http.HttpHeaders;
 import com.hibegin.http.HttpMethod;
 import com.hibegin.http.server.ApplicationContext;
 import com.hibegin.http.server.api.HttpRequest;
@@ -20,6 +19,8 @@ import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.URLDecoder;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -37,16 +38,22 @@ public class SimpleHttpRequest implements HttpRequest {
     private Map<String, Object> attr;
     private ReadWriteSelectorHandler handler;
     private long createTime;
-    private InputStream inputStream;
 
-    protected Map<String, String> header = new HashMap<>();
+    protected HttpHeaders header = new HttpHeaders();
     protected Map<String, String[]> paramMap;
     protected String uri;
     protected String queryStr;
     protected HttpMethod method;
     protected Map<String, File> files;
     protected File tmpRequestBodyFile;
+    /**
+     * 开启 recordRequestBody 时，没有超过 requestBodyMemoryThreshold 的请求体，超过时保存在 tmpRequestBodyFile 中
+     */
+    protected byte[] requestBody;
+    private volatile MappedByteBuffer mappedRequestBody;
     protected String requestHeaderStr;
+    protected String httpVersion;
+    protected InputStream inputStream;
 
     protected SimpleHttpRequest(ReadWriteSelectorHandler handler, ApplicationContext applicationContext, RequestConfig requestConfig) {
         this.requestConfig = requestConfig;
@@ -62,16 +69,7 @@ public class SimpleHttpRequest implements HttpRequest {
 
     @Override
     public String getHeader(String key) {
-        String headerValue = header.get(key);
-        if (headerValue != null) {
-            return headerValue;
-        }
-        for (Map.Entry<String, String> entry : header.entrySet()) {
-            if (entry.getKey().equalsIgnoreCase(key)) {
-                return entry.getValue();
-            }
-        }
-        return null;
+        return header.get(key);
     }
 
     @Override
@@ -85,7 +83,7 @@ public class SimpleHttpRequest implements HttpRequest {
 
     @Override
     public String getUrl() {
-        return getScheme() + "://" + getHeader("Host") + uri;
+        return getScheme() + "://" + getHeader(HttpHeaders.HOST) + uri;
     }
 
     @Override
@@ -115,7 +113,7 @@ public class SimpleHttpRequest implements HttpRequest {
 
     private void dealWithCookie(boolean create) {
         if (!requestConfig.isDisableCookie()) {
-            String cookieHeader = getHeader("Cookie");
+            String cookieHeader = getHeader(HttpHeaders.COOKIE);
             if (cookieHeader != null) {
                 cookies = Cookie.saxToCookie(cookieHeader);
                 String jsessionid = Cookie.getJSessionId(cookieHeader, getServerConfig().getSessionId());
@@ -216,7 +214,9 @@ public class SimpleHttpRequest implements HttpRequest {
         if (inputStream != null) {
             return inputStream;
         } else {
-            if (tmpRequestBodyFile != null) {
+            if (requestBody != null) {
+                inputStream = new ByteArrayInputStream(requestBody);
+            } else if (tmpRequestBodyFile != null) {
                 try {
                     inputStream = new FileInputStream(tmpRequestBodyFile);
                 } catch (FileNotFoundException e) {
@@ -264,24 +264,13 @@ public class SimpleHttpRequest implements HttpRequest {
         if (getRequestConfig().isRecordRequestBody()) {
             byte[] splitBytes = HttpRequestDecoderImpl.SPLIT.getBytes();
             byte[] bytes = requestHeaderStr.getBytes();
-            if (tmpRequestBodyFile == null) {
-                ByteBuffer buffer = ByteBuffer.allocate(bytes.length + splitBytes.length);
-                buffer.put(bytes);
-                buffer.put(splitBytes);
-                return buffer;
-            } else {
-                byte[] dataBytes = new byte[0];
-                try {
-                    dataBytes = IOUtil.getByteByInputStream(new FileInputStream(tmpRequestBodyFile));
-                } catch (FileNotFoundException e) {
-                    //e.printStackTrace();
-                }
-                ByteBuffer buffer = ByteBuffer.allocate(requestHeaderStr.getBytes().length + splitBytes.length + dataBytes.length);
-                buffer.put(requestHeaderStr.getBytes());
-                buffer.put(splitBytes);
-                buffer.put(dataBytes);
-                return buffer;
-            }
+            ByteBuffer body = getRequestBodyByteBuffer();
+            //请求体直接从内存或者文件映射中复制一次
+            ByteBuffer buffer = ByteBuffer.allocate(bytes.length + splitBytes.length + body.remaining());
+            buffer.put(bytes);
+            buffer.put(splitBytes);
+            buffer.put(body);
+            return buffer;
         } else {
             throw new InternalException("Please enable record request body");
         }
@@ -302,12 +291,21 @@ public class SimpleHttpRequest implements HttpRequest {
         return getRequestBodyByteBuffer(0);
     }
 
+    /**
+     * 返回只读的 ByteBuffer，不复制请求体，写入临时文件的请求体通过内存映射(MappedByteBuffer)访问
+     */
     @Override
     public ByteBuffer getRequestBodyByteBuffer(int offset) {
         try {
-            if (tmpRequestBodyFile != null && offset <= tmpRequestBodyFile.length()) {
-                byte[] bytes = IOUtil.getByteByInputStream(new FileInputStream(tmpRequestBodyFile.toString()));
-                return ByteBuffer.wrap(BytesUtil.subBytes(bytes, offset, bytes.length - offset));
+            ByteBuffer body = null;
+            if (requestBody != null) {
+                body = ByteBuffer.wrap(requestBody).asReadOnlyBuffer();
+            } else if (tmpRequestBodyFile != null) {
+                body = mapRequestBody().duplicate();
+            }
+            if (body != null && offset >= 0 && offset <= body.remaining()) {
+                body.position(offset);
+                return body.slice();
             }
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "", e);
@@ -316,8 +314,37 @@ public class SimpleHttpRequest implements HttpRequest {
         return ByteBuffer.wrap(new byte[0]);
     }
 
+    /**
+     * 第一次访问时才映射，CONNECT 的请求体会继续追加到文件中，长度变化后重新映射
+     */
+    private MappedByteBuffer mapRequestBody() throws IOException {
+        MappedByteBuffer mapped = mappedRequestBody;
+        if (mapped == null || mapped.capacity() != tmpRequestBodyFile.length()) {
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(tmpRequestBodyFile, "r")) {
+                FileChannel fileChannel = randomAccessFile.getChannel();
+                mapped = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+            }
+            mappedRequestBody = mapped;
+        }
+        return mapped;
+    }
+
+    /**
+     * 请求处理完成后调用，流式请求体中没有读取的数据会被丢弃
+     */
+    public void closeInputStream() {
+        if (inputStream != null) {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "close inputStream error", e);
+            }
+        }
+    }
+
     public void deleteTempUploadFiles() {
         if (tmpRequestBodyFile != null) {
+            mappedRequestBody = null;
             FileCacheKit.deleteCache(tmpRequestBodyFile);
         }
         if (files != null) {
@@ -329,12 +356,6 @@ public class SimpleHttpRequest implements HttpRequest {
 
     @Override
     public String getHttpVersion() {
-        String[] tempArr = requestHeaderStr.split("\r\n");
-        if (tempArr.length > 0) {
-            if (tempArr[0].split(" ").length > 2) {
-                return tempArr[0].split(" ")[2];
-            }
-        }
-        return "";
+        return httpVersion != null ? httpVersion : "";
     }
 }
@@ -1,31 +1,35 @@
 package com.hibegin.http.server.impl;
 
 import com.hibegin.common.util.BytesUtil;
+import com.hibegin.common.util.DeflaterPool;
 import com.hibegin.common.util.IOUtil;
 import com.hibegin.common.util.LoggerUtil;
+import com.hibegin.http.HttpHeaders;
+import com.hibegin.http.HttpMethod;
 import com.hibegin.http.io.ChunkedOutputStream;
 import com.hibegin.http.io.GzipCompressingInputStream;
 import com.hibegin.http.server.api.HttpRequest;
 import com.hibegin.http.server.api.HttpResponse;
 import com.hibegin.http.server.config.ResponseConfig;
+import com.hibegin.http.server.config.StaticResourceLoader;
 import com.hibegin.http.server.execption.InternalException;
 import com.hibegin.http.server.util.*;
 import com.hibegin.http.server.web.cookie.Cookie;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.Deflater;
 
 public class SimpleHttpResponse implements HttpResponse {
 
-    private static final String CRLF = "\r\n";
     private static final int RESPONSE_BYTES_BLANK_SIZE = 4096;
     private static final Logger LOGGER = LoggerUtil.getLogger(SimpleHttpResponse.class);
     private Map<String, String> header = new HashMap<>();
@@ -33,7 +37,6 @@ public class SimpleHttpResponse implements HttpResponse {
     private List<Cookie> cookieList = new ArrayList<>();
     private ResponseConfig responseConfig;
     private static final int SEND_FILE_BLANK_LENGTH = 1024 * 1024;
-    private static final String SERVER_INFO = ServerInfo.getName() + "/" + ServerInfo.getVersion();
 
     public SimpleHttpResponse(HttpRequest request, ResponseConfig responseConfig) {
         this.request = request;
@@ -49,24 +52,27 @@ public class SimpleHttpResponse implements HttpResponse {
                     renderByStatusCode(302);
                     return;
                 }
+                Map<String, ResourceValidators> validatorsCache = responseConfig.getResourceValidatorsCache();
+                ResourceValidators validators = validatorsCache.get(file.getAbsolutePath());
+                if (validators == null || !validators.isValidFor(file)) {
+                    validators = ResourceValidators.forFile(file);
+                    validatorsCache.put(file.getAbsolutePath(), validators);
+                }
+                if (writeNotModified(validators)) {
+                    return;
+                }
                 fileInputStream = new FileInputStream(file);
                 String ext = file.getName().substring(file.getName().lastIndexOf(".") + 1);
                 // getMimeType
                 if (header.get("Content-Type") == null) {
                     header.put("Content-Type", MimeTypeUtil.getMimeStrByExt(ext));
                 }
-                if (file.length() < SEND_FILE_BLANK_LENGTH) {
+                if (isGzipResponse(file.length())) {
+                    writeGzipFile(file, fileInputStream);
+                } else if (file.length() < SEND_FILE_BLANK_LENGTH) {
                     send(buildResponseData(200, IOUtil.getByteByInputStream(fileInputStream)));
                 } else {
-                    send(wrapperResponseHeaderWithContentLength(200, file.length()), false);
-                    //处理大文件
-                    int length = SEND_FILE_BLANK_LENGTH;
-                    byte tempByte[] = new byte[length];
-                    while ((length = fileInputStream.read(tempByte)) != -1) {
-                        send(BytesUtil.subBytes(tempByte, 0, length), false);
-                    }
-                    //是否关闭流
-                    send(new byte[]{});
+                    sendRawFile(fileInputStream, file.length());
                 }
 
             } catch (IOException e) {
@@ -85,10 +91,208 @@ public class SimpleHttpResponse implements HttpResponse {
         }
     }
 
+    private void sendRawFile(FileInputStream fileInputStream, long length) {
+        send(new ByteBuffer[]{wrapperResponseHeaderWithContentLength(200, length)}, false);
+        //大文件直接由 channel 写出，不经过堆内存
+        sendFile(fileInputStream.getChannel(), length);
+        //是否关闭流
+        send(new byte[]{});
+    }
+
+    /**
+     * 优先使用缓存的压缩结果，其次是文件旁边更新的 .gz 文件，都没有时压缩后缓存起来
+     * <p>
+     * 太大不能缓存的文件每次边压缩边写出
+     */
+    private void writeGzipFile(File file, FileInputStream fileInputStream) throws IOException {
+        CompressedResourceCache cache = responseConfig.getCompressedResourceCache();
+        File gzipFile = new File(file.getPath() + ".gz");
+        boolean useGzipFile = gzipFile.isFile() && gzipFile.lastModified() >= file.lastModified();
+        //.gz 文件的内容只由它自己决定，用它的修改时间和长度作为缓存的 key，替换 .gz 文件后不会继续使用旧的内容
+        String key = useGzipFile ? CompressedResourceCache.key(gzipFile.getAbsolutePath(), gzipFile.lastModified(), gzipFile.length(), "gzip")
+                : CompressedResourceCache.key(file.getAbsolutePath(), file.lastModified(), file.length(), "gzip");
+        byte[] compressed = cache.get(key);
+        if (compressed == null) {
+            if (useGzipFile && gzipFile.length() <= cache.getMaxEntrySize()) {
+                compressed = IOUtil.getByteByInputStream(new FileInputStream(gzipFile));
+            } else if (!useGzipFile && file.length() <= cache.getMaxEntrySize()) {
+                compressed = gzip(IOUtil.getByteByInputStream(fileInputStream));
+            }
+            if (compressed != null) {
+                cache.put(key, compressed);
+            }
+        }
+        if (compressed == CompressedResourceCache.NOT_COMPRESSIBLE) {
+            try (FileInputStream in = new FileInputStream(file)) {
+                sendRawFile(in, file.length());
+            }
+        } else if (compressed != null) {
+            sendGzipBytes(compressed);
+        } else if (useGzipFile) {
+            header.put("Content-Encoding", "gzip");
+            try (FileInputStream in = new FileInputStream(gzipFile)) {
+                sendRawFile(in, gzipFile.length());
+            }
+        } else {
+            //压缩后的长度事先不知道，使用 chunked 边压缩边写出
+            write(fileInputStream, 200);
+        }
+    }
+
+    /**
+     * StaticResourceLoader 中的资源运行期间不会变化，ETag 根据内容计算一次后缓存
+     *
+     * @return 是否已经返回了 304，资源不存在时返回 false
+     */
+    public boolean writeNotModified(String mapping, StaticResourceLoader loader, String path) {
+        Map<String, ResourceValidators> validatorsCache = responseConfig.getResourceValidatorsCache();
+        String key = staticResourceKey(mapping, path);
+        ResourceValidators validators = validatorsCache.get(key);
+        if (validators == null) {
+            InputStream inputStream = loader.getInputStream(path);
+            if (inputStream == null) {
+                return false;
+            }
+            try {
+                validators = ResourceValidators.forContent(inputStream);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "", e);
+                return false;
+            }
+            validatorsCache.put(key, validators);
+        }
+        return writeNotModified(validators);
+    }
+
+    /**
+     * 设置 ETag、Last-Modified 和 Cache-Control，GET/HEAD 请求的条件满足时返回没有响应体的 304
+     */
+    private boolean writeNotModified(ResourceValidators validators) {
+        if (!header.containsKey("ETag")) {
+            header.put("ETag", validators.getETag());
+        }
+        if (validators.getLastModified() != null && !header.containsKey("Last-Modified")) {
+            header.put("Last-Modified", validators.getLastModified());
+        }
+        if (responseConfig.getStaticResourceCacheControl() != null && !header.containsKey(HttpHeaders.CACHE_CONTROL)) {
+            header.put(HttpHeaders.CACHE_CONTROL, responseConfig.getStaticResourceCacheControl());
+        }
+        if (request.getMethod() != HttpMethod.GET && request.getMethod() != HttpMethod.HEAD) {
+            return false;
+        }
+        if (!validators.isNotModified(request.getHeader(HttpHeaders.IF_NONE_MATCH), request.getHeader(HttpHeaders.IF_MODIFIED_SINCE))) {
+            return false;
+        }
+        send(new ByteBuffer[]{wrapperBaseResponseHeader(304)});
+        return true;
+    }
+
+    /**
+     * StaticResourceLoader 中的资源，运行期间不会变化，压缩结果按照映射前缀(mapping)和路径缓存。存在 path + ".gz" 时直接使用
+     */
+    public void writeStaticResource(String mapping, StaticResourceLoader loader, String path, InputStream inputStream) {
+        if (!isGzipResponse(-1)) {
+            write(inputStream);
+            return;
+        }
+        CompressedResourceCache cache = responseConfig.getCompressedResourceCache();
+        String key = CompressedResourceCache.key(staticResourceKey(mapping, path), 0, -1, "gzip");
+        byte[] compressed = cache.get(key);
+        InputStream gzipInputStream = null;
+        try {
+            if (compressed == null) {
+                gzipInputStream = loader.getInputStream(path + ".gz");
+                if (gzipInputStream != null) {
+                    gzipInputStream = new BufferedInputStream(gzipInputStream);
+                    compressed = readAtMost(gzipInputStream, cache.getMaxEntrySize());
+                } else {
+                    inputStream = new BufferedInputStream(inputStream);
+                    byte[] bytes = readAtMost(inputStream, cache.getMaxEntrySize());
+                    if (bytes != null) {
+                        compressed = bytes.length < responseConfig.getGzipMinLength() ? CompressedResourceCache.NOT_COMPRESSIBLE : gzip(bytes);
+                        if (compressed == CompressedResourceCache.NOT_COMPRESSIBLE) {
+                            cache.put(key, compressed);
+                            send(new ByteBuffer[]{wrapperResponseHeaderWithContentLength(200, bytes.length), ByteBuffer.wrap(bytes)});
+                            return;
+                        }
+                    }
+                }
+                if (compressed != null) {
+                    cache.put(key, compressed);
+                }
+            }
+            if (compressed == CompressedResourceCache.NOT_COMPRESSIBLE) {
+                byte[] bytes = IOUtil.getByteByInputStream(inputStream);
+                send(new ByteBuffer[]{wrapperResponseHeaderWithContentLength(200, bytes.length), ByteBuffer.wrap(bytes)});
+            } else if (compressed != null) {
+                sendGzipBytes(compressed);
+            } else if (gzipInputStream != null) {
+                //已经设置了 Content-Encoding，不会再压缩
+                header.put("Content-Encoding", "gzip");
+                write(gzipInputStream);
+                gzipInputStream = null;
+            } else {
+                write(inputStream);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "", e);
+        } finally {
+            closeQuietly(inputStream);
+            closeQuietly(gzipInputStream);
+        }
+    }
+
+    /**
+     * getStaticResourceMapper() 中的映射前缀是唯一的，不同的 StaticResourceLoader 的资源不会相互覆盖
+     */
+    private static String staticResourceKey(String mapping, String path) {
+        return mapping + '\0' + path;
+    }
+
+    /**
+     * 读取全部的数据，超过 limit 时返回 null，并且回到开始的位置(inputStream 需要支持 mark)
+     */
+    private static byte[] readAtMost(InputStream inputStream, long limit) throws IOException {
+        int readLimit = (int) Math.min(limit, Integer.MAX_VALUE - 1);
+        inputStream.mark(readLimit + 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] bytes = new byte[RESPONSE_BYTES_BLANK_SIZE];
+        int length;
+        while ((length = inputStream.read(bytes)) != -1) {
+            if (out.size() + length > readLimit) {
+                inputStream.reset();
+                return null;
+            }
+            out.write(bytes, 0, length);
+        }
+        return out.toByteArray();
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        if (inputStream != null) {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+    }
+
+    private void sendGzipBytes(byte[] compressed) {
+        header.put("Content-Encoding", "gzip");
+        send(new ByteBuffer[]{wrapperResponseHeaderWithContentLength(200, compressed.length), ByteBuffer.wrap(compressed)});
+    }
+
     private void send(byte[] bytes, boolean close) {
+        send(new ByteBuffer[]{ByteBuffer.wrap(bytes)}, close);
+    }
+
+    private void send(ByteBuffer[] byteBuffers, boolean close) {
         try {
-            if (bytes.length > 0) {
-                request.getHandler().handleWrite(ByteBuffer.wrap(bytes));
+            if (byteBuffers.length > 1) {
+                request.getHandler().handleWrite(byteBuffers);
+            } else if (byteBuffers[0].hasRemaining()) {
+                request.getHandler().handleWrite(byteBuffers[0]);
             }
             if (close) {
                 request.getHandler().close();
@@ -101,13 +305,28 @@ public class SimpleHttpResponse implements HttpResponse {
         }
     }
 
+    private void sendFile(FileChannel fileChannel, long length) {
+        try {
+            request.getHandler().handleWrite(fileChannel, 0, length);
+        } catch (IOException e) {
+            //LOGGER.log(Level.WARNING, "send error " + e.getMessage());
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "send error", e);
+            throw new InternalException("send error", e);
+        }
+    }
+
     public void send(ByteArrayOutputStream outputStream, boolean close) {
         send(outputStream.toByteArray(), close);
     }
 
 
     private void send(byte[] bytes) {
-        send(bytes, "close".equalsIgnoreCase(getHeader().get("Connection")));
+        send(new ByteBuffer[]{ByteBuffer.wrap(bytes)});
+    }
+
+    private void send(ByteBuffer[] byteBuffers) {
+        send(byteBuffers, "close".equalsIgnoreCase(getHeader().get("Connection")));
     }
 
     @Override
@@ -122,48 +341,41 @@ public class SimpleHttpResponse implements HttpResponse {
     }
 
     /**
+     * 响应头和响应体分开返回，由 handler 使用 gathering write 一起写出，避免再复制一次响应体
+     *
      * @return
      */
-    private byte[] buildResponseData(Integer statusCode, byte[] data) {
-        byte[] headerBytes = wrapperResponseHeaderWithContentLength(statusCode, data.length);
-        if (data.length == 0) {
-            return headerBytes;
+    private ByteBuffer[] buildResponseData(Integer statusCode, byte[] data) {
+        ByteBuffer body = tryConvertGzipBytes(data);
+        ByteBuffer headerBuffer = wrapperResponseHeaderWithContentLength(statusCode, body.remaining());
+        if (!body.hasRemaining()) {
+            return new ByteBuffer[]{headerBuffer};
         } else {
-            return BytesUtil.mergeBytes(headerBytes, tryConvertGzipBytes(data));
+            return new ByteBuffer[]{headerBuffer, body};
         }
     }
 
-    private byte[] wrapperResponseHeaderWithContentLength(Integer statusCode, long length) {
-        header.put("Content-Length", length + "");
+    private ByteBuffer wrapperResponseHeaderWithContentLength(Integer statusCode, long length) {
+        header.put("Content-Length", Long.toString(length));
         return wrapperBaseResponseHeader(statusCode);
     }
 
-    private byte[] wrapperBaseResponseHeader(int statusCode) {
-        if (responseConfig.isGzip()) {
-            header.put("Content-Encoding", "gzip");
-            header.remove("Content-Length");
-        }
-
-        header.put("Server", SERVER_INFO);
+    private ByteBuffer wrapperBaseResponseHeader(int statusCode) {
         if (!getHeader().containsKey("Connection")) {
-            boolean keepAlive = request.getHeader("Connection") == null;
+            boolean keepAlive = request.getHeader(HttpHeaders.CONNECTION) == null;
             if (keepAlive) {
                 if (request.getHttpVersion().equals("HTTP/1.0")) {
                     getHeader().put("Connection", "close");
                 } else {
                     getHeader().put("Connection", "keep-alive");
                 }
-            } else if (!"close".equals(request.getHeader("Connection"))) {
+            } else if (!"close".equals(request.getHeader(HttpHeaders.CONNECTION))) {
                 getHeader().put("Connection", "keep-alive");
             } else {
                 getHeader().put("Connection", "close");
             }
         }
-        StringBuilder sb = new StringBuilder();
-        sb.append("HTTP/1.1 ").append(statusCode).append(" ").append(StatusCodeUtil.getStatusCodeDesc(statusCode)).append(CRLF);
-        for (Entry<String, String> he : header.entrySet()) {
-            sb.append(he.getKey()).append(": ").append(he.getValue()).append(CRLF);
-        }
+        List<String> setCookies = new ArrayList<>();
         //deal cookie
         if (!responseConfig.isDisableCookie()) {
             Cookie[] cookies = request.getCookies();
@@ -175,34 +387,114 @@ public class SimpleHttpResponse implements HttpResponse {
                 }
             }
             for (Cookie cookie : cookieList) {
-                sb.append("Set-Cookie: ").append(cookie).append(CRLF);
+                setCookies.add(cookie.toString());
             }
         }
-        sb.append(CRLF);
-        return sb.toString().getBytes();
+        return HttpResponseHeaderEncoder.encode(statusCode, header, setCookies);
     }
 
-    private byte[] wrapperResponseHeaderWithContentLength(Integer statusCode) {
+    private ByteBuffer wrapperResponseHeaderWithContentLength(Integer statusCode) {
         header.put("Transfer-Encoding", "chunked");
         return wrapperBaseResponseHeader(statusCode);
     }
 
-    private byte[] tryConvertGzipBytes(byte[] bytes) {
-        if (responseConfig.isGzip()) {
-            try {
-                ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length);
-                GZIPOutputStream gzip = new GZIPOutputStream(bos);
-                gzip.write(bytes);
-                gzip.close();
-                byte[] compressed = bos.toByteArray();
-                bos.close();
+    /**
+     * 压缩后没有变小时直接返回原来的数据
+     */
+    private ByteBuffer tryConvertGzipBytes(byte[] bytes) {
+        if (isGzipResponse(bytes.length)) {
+            ByteBuffer compressed = gzipToByteBuffer(bytes);
+            if (compressed.remaining() < bytes.length) {
+                header.put("Content-Encoding", "gzip");
                 return compressed;
-            } catch (IOException e) {
-                throw new InternalException("convertGzipBytes error ", e);
             }
+        }
+        return ByteBuffer.wrap(bytes);
+    }
 
+    private ByteBuffer gzipToByteBuffer(byte[] bytes) {
+        DeflaterPool deflaterPool = responseConfig.getDeflaterPool();
+        Deflater deflater = deflaterPool.acquire();
+        try {
+            return GzipCompressingInputStream.gzip(bytes, deflater);
+        } finally {
+            deflaterPool.release(deflater);
         }
-        return bytes;
+    }
+
+    /**
+     * 用于缓存，返回刚好大小的数组，没有变小时返回 NOT_COMPRESSIBLE
+     */
+    private byte[] gzip(byte[] bytes) {
+        ByteBuffer compressed = gzipToByteBuffer(bytes);
+        if (compressed.remaining() >= bytes.length) {
+            return CompressedResourceCache.NOT_COMPRESSIBLE;
+        }
+        return Arrays.copyOf(compressed.array(), compressed.remaining());
+    }
+
+    /**
+     * 开启了 gzip，客户端支持，并且响应体的类型和长度(未知时为 -1)需要压缩
+     */
+    private boolean isGzipResponse(long length) {
+        if (!responseConfig.isGzip() || header.containsKey("Content-Encoding") || !isGzipMimeType(header.get("Content-Type"))) {
+            return false;
+        }
+        //响应的内容和 Accept-Encoding 有关
+        header.put("Vary", "Accept-Encoding");
+        return (length < 0 || length >= responseConfig.getGzipMinLength()) && isAcceptGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    private boolean isGzipMimeType(String contentType) {
+        if (contentType == null || responseConfig.getGzipMimeTypes() == null) {
+            return false;
+        }
+        String mimeType = contentType.split(";")[0].trim().toLowerCase();
+        for (String gzipMimeType : responseConfig.getGzipMimeTypes()) {
+            if (gzipMimeType.endsWith("/*") ? mimeType.startsWith(gzipMimeType.substring(0, gzipMimeType.length() - 1)) : mimeType.equals(gzipMimeType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 支持 gzip、x-gzip 和 *，q=0 表示不接受。需要检查完整的列表，明确写出的 gzip/x-gzip 优先于 *
+     */
+    private static boolean isAcceptGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean gzip = null;
+        Boolean any = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] params = coding.split(";");
+            String name = params[0].trim();
+            if ("gzip".equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name)) {
+                //gzip 和 x-gzip 同时出现时，有一个接受就可以
+                gzip = Boolean.TRUE.equals(gzip) || isAcceptable(params);
+            } else if ("*".equals(name)) {
+                any = isAcceptable(params);
+            }
+        }
+        if (gzip != null) {
+            return gzip;
+        }
+        return Boolean.TRUE.equals(any);
+    }
+
+    private static boolean isAcceptable(String[] params) {
+        for (int i = 1; i < params.length; i++) {
+            String param = params[i].trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Float.parseFloat(param.substring(2)) > 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
     private void renderByStatusCode(Integer errorCode) {
@@ -213,7 +505,7 @@ public class SimpleHttpResponse implements HttpResponse {
             if (!header.containsKey("Location")) {
                 String welcomeFile = request.getServerConfig().getWelcomeFile();
                 if (welcomeFile == null || "".equals(welcomeFile.trim())) {
-                    header.put("Location", request.getScheme() + "://" + request.getHeader("Host") + "/" + request.getUri() + welcomeFile);
+                    header.put("Location", request.getScheme() + "://" + request.getHeader(HttpHeaders.HOST) + "/" + request.getUri() + welcomeFile);
                 }
             }
             send(buildResponseData(errorCode, new byte[]{}));
@@ -262,7 +554,7 @@ public class SimpleHttpResponse implements HttpResponse {
 
     @Override
     public void forward(String uri) {
-        redirect(request.getScheme() + "://" + request.getHeader("Host") + "/" + uri);
+        redirect(request.getScheme() + "://" + request.getHeader(HttpHeaders.HOST) + "/" + uri);
     }
 
     @Override
@@ -292,16 +584,17 @@ public class SimpleHttpResponse implements HttpResponse {
 
     @Override
     public void write(InputStream inputStream, int code) {
+        Deflater deflater = null;
         try {
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            byteArrayOutputStream.write(wrapperResponseHeaderWithContentLength(code));
-            send(byteArrayOutputStream, false);
+            if (inputStream != null && isGzipResponse(-1)) {
+                deflater = responseConfig.getDeflaterPool().acquire();
+                inputStream = new GzipCompressingInputStream(inputStream, RESPONSE_BYTES_BLANK_SIZE, deflater);
+                header.put("Content-Encoding", "gzip");
+            }
+            send(new ByteBuffer[]{wrapperResponseHeaderWithContentLength(code)}, false);
             if (inputStream != null) {
                 byte[] bytes = new byte[RESPONSE_BYTES_BLANK_SIZE];
                 int length;
-                if (responseConfig.isGzip()) {
-                    inputStream = new GzipCompressingInputStream(inputStream);
-                }
                 while ((length = inputStream.read(bytes)) != -1) {
                     ByteArrayOutputStream tmpOut = new ByteArrayOutputStream();
                     ChunkedOutputStream chunkedOutputStream = new ChunkedOutputStream(tmpOut);
@@ -323,6 +616,8 @@ public class SimpleHttpResponse implements HttpResponse {
                     LOGGER.log(Level.SEVERE, "", e);
                 }
             }
+            //流关闭后才能归还
+            responseConfig.getDeflaterPool().release(deflater);
         }
     }
 
@@ -0,0 +1,58 @@
+package com.hibegin.http.server.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 静态资源压缩后的内容，按照 路径 + 修改时间 + 长度 + 编码 缓存，同一个文件只需要压缩一次
+ * <p>
+ * 按最近使用的顺序淘汰，缓存的总大小不超过 maxSize，原始内容超过 getMaxEntrySize() 的不缓存
+ */
+public class CompressedResourceCache {
+
+    /**
+     * 压缩后没有变小，直接返回原来的内容
+     */
+    public static final byte[] NOT_COMPRESSIBLE = new byte[0];
+
+    private final long maxSize;
+    private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    public CompressedResourceCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public static String key(String path, long lastModified, long length, String encoding) {
+        return path + ":" + lastModified + ":" + length + ":" + encoding;
+    }
+
+    public synchronized byte[] get(String key) {
+        return cache.get(key);
+    }
+
+    public synchronized void put(String key, byte[] value) {
+        if (value.length > getMaxEntrySize()) {
+            return;
+        }
+        byte[] oldValue = cache.put(key, value);
+        if (oldValue != null) {
+            size -= oldValue.length;
+        }
+        size += value.length;
+        Iterator<Map.Entry<String, byte[]>> iterator = cache.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            size -= iterator.next().getValue().length;
+            iterator.remove();
+        }
+    }
+
+    public long getMaxEntrySize() {
+        return maxSize / 4;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+}
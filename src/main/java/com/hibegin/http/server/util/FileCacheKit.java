@@ -31,7 +31,7 @@ public class FileCacheKit {
     public static File generatorRequestTempFile(int flag, byte[] bytes) {
         if (bytes != null && bytes.length > 0) {
             try {
-                File file = File.createTempFile("cache-", suffix(flag), new File(PathUtil.getTempPath()));
+                File file = createRequestTempFile(flag);
                 IOUtil.writeBytesToFile(bytes, file);
                 return file;
             } catch (IOException e) {
@@ -41,6 +41,13 @@ public class FileCacheKit {
         return NOT_FOUND_FILE;
     }
 
+    /**
+     * 创建一个空的临时文件，用于边接收边写入的上传文件
+     */
+    public static File createRequestTempFile(int flag) throws IOException {
+        return File.createTempFile("cache-", suffix(flag), new File(PathUtil.getTempPath()));
+    }
+
     private static String suffix(int flag) {
         return ".tmp." + flag;
     }
@@ -0,0 +1,139 @@
+package com.hibegin.http.server.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * 静态资源的 ETag 和 Last-Modified，用于条件请求(If-None-Match/If-Modified-Since)返回 304
+ * <p>
+ * 文件根据长度和修改时间生成，不需要打开文件。StaticResourceLoader 中的资源没有修改时间，根据内容计算一次摘要。
+ * 同一个资源的压缩和未压缩的内容使用同一个 ETag，所以都是弱校验(W/)
+ */
+public class ResourceValidators {
+
+    private final String eTag;
+    private final String lastModified;
+    private final long lastModifiedTime;
+    private final long length;
+
+    private ResourceValidators(String eTag, long lastModifiedTime, long length) {
+        this.eTag = eTag;
+        this.lastModifiedTime = lastModifiedTime;
+        this.lastModified = lastModifiedTime > 0 ? formatHttpDate(lastModifiedTime) : null;
+        this.length = length;
+    }
+
+    public static ResourceValidators forFile(File file) {
+        long lastModifiedTime = file.lastModified();
+        long length = file.length();
+        return new ResourceValidators("W/\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModifiedTime) + "\"", lastModifiedTime, length);
+    }
+
+    /**
+     * 读取全部内容计算摘要，读取完成后会关闭 inputStream
+     */
+    public static ResourceValidators forContent(InputStream inputStream) throws IOException {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+            byte[] bytes = new byte[4096];
+            long length = 0;
+            int len;
+            while ((len = inputStream.read(bytes)) != -1) {
+                messageDigest.update(bytes, 0, len);
+                length += len;
+            }
+            StringBuilder sb = new StringBuilder("W/\"");
+            for (byte b : messageDigest.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return new ResourceValidators(sb.append('"').toString(), -1, length);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * 按最近使用的顺序淘汰，最多保存 maxEntries 个
+     */
+    public static Map<String, ResourceValidators> newCache(final int maxEntries) {
+        return Collections.synchronizedMap(new LinkedHashMap<String, ResourceValidators>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ResourceValidators> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    /**
+     * 文件的长度和修改时间没有变化时可以继续使用
+     */
+    public boolean isValidFor(File file) {
+        return lastModifiedTime == file.lastModified() && length == file.length();
+    }
+
+    /**
+     * 有 If-None-Match 时只比较 ETag，否则比较 If-Modified-Since(精确到秒)
+     */
+    public boolean isNotModified(String ifNoneMatch, String ifModifiedSince) {
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if ("*".equals(tag) || weak(tag).equals(weak(eTag))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (ifModifiedSince != null && lastModifiedTime > 0) {
+            long since = parseHttpDate(ifModifiedSince);
+            return since > 0 && lastModifiedTime / 1000 <= since / 1000;
+        }
+        return false;
+    }
+
+    private static String weak(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    private static SimpleDateFormat newHttpDateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+    private static String formatHttpDate(long time) {
+        return newHttpDateFormat().format(new Date(time));
+    }
+
+    /**
+     * 格式错误时返回 -1
+     */
+    private static long parseHttpDate(String str) {
+        try {
+            return newHttpDateFormat().parse(str.trim()).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+}
@@ -43,6 +43,7 @@ public class StatusCodeUtil {
         map.put(416, "Range Not Satisfiable");
         map.put(417, "Expectation Failed");
         map.put(426, "Upgrade Required");
+        map.put(431, "Request Header Fields Too Large");
         map.put(500, "Internal Server Error");
         map.put(501, "Not Implemented");
         map.put(502, "Bad Gateway");
@@ -5,6 +5,7 @@ import com.hibegin.http.server.api.HttpRequest;
 import com.hibegin.http.server.api.HttpResponse;
 import com.hibegin.http.server.api.Interceptor;
 import com.hibegin.http.server.config.StaticResourceLoader;
+import com.hibegin.http.server.impl.SimpleHttpResponse;
 import com.hibegin.http.server.util.MimeTypeUtil;
 
 import java.io.File;
@@ -18,6 +19,30 @@ import java.util.logging.Logger;
 public class MethodInterceptor implements Interceptor {
     private static final Logger LOGGER = LoggerUtil.getLogger(MethodInterceptor.class);
 
+    /**
+     * 和 doInterceptor 的查找顺序一致，只判断是否有对应的静态资源、方法或者文件，不处理请求
+     * <p>
+     * 在解码线程中调用，只有静态资源和方法都没有匹配时才访问文件系统(一次 stat)
+     */
+    public boolean hasMapping(HttpRequest request) {
+        for (String prefix : request.getServerConfig().getStaticResourceMapper().keySet()) {
+            if (request.getUri().startsWith(prefix)) {
+                return true;
+            }
+        }
+        Router router = request.getRequestConfig().getRouter();
+        if (router.getMethod(request.getUri()) != null) {
+            return true;
+        }
+        if (request.getUri().contains("-") && router.getMethod(request.getUri().substring(0, request.getUri().indexOf("-"))) != null) {
+            return true;
+        }
+        if (request.getUri().endsWith("/")) {
+            return true;
+        }
+        return new File(request.getRealPath() + request.getUri()).isFile();
+    }
+
     @Override
     public boolean doInterceptor(HttpRequest request, HttpResponse response) throws Exception {
         boolean next = true;
@@ -27,12 +52,22 @@ public class MethodInterceptor implements Interceptor {
                 if (request.getUri().endsWith("/")) {
                     path += request.getServerConfig().getWelcomeFile();
                 }
+                if (response instanceof SimpleHttpResponse && ((SimpleHttpResponse) response).writeNotModified(entry.getKey(), entry.getValue().getValue(), entry.getValue().getKey() + path)) {
+                    //已经返回了 304，不需要再读取资源
+                    next = false;
+                    break;
+                }
                 InputStream inputStream = entry.getValue().getValue().getInputStream(entry.getValue().getKey() + path);
                 if (inputStream != null) {
                     if (path.contains(".")) {
                         response.addHeader("Content-Type", MimeTypeUtil.getMimeStrByExt(path.substring(path.lastIndexOf(".") + 1)));
                     }
-                    response.write(inputStream);
+                    if (response instanceof SimpleHttpResponse) {
+                        //可以使用缓存的压缩结果
+                        ((SimpleHttpResponse) response).writeStaticResource(entry.getKey(), entry.getValue().getValue(), entry.getValue().getKey() + path, inputStream);
+                    } else {
+                        response.write(inputStream);
+                    }
                 } else {
                     response.renderCode(404);
                 }
@@ -0,0 +1,15 @@
+package com.hibegin.common.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class VirtualThreadKit {
+
+    public static boolean isSupported() {
+        return true;
+    }
+
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        return Executors.newVirtualThreadPerTaskExecutor();
+    }
+}